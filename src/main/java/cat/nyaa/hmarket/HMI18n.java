@@ -14,46 +14,80 @@ import org.bukkit.plugin.Plugin;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.text.DecimalFormat;
-import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Objects;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class HMI18n extends LanguageRepository {
-    private static HMI18n instance;
+    private static volatile HMI18n instance;
     private final Hmarket plugin;
     private final String language;
 
     private static final LegacyComponentSerializer legacyComponentSerializer =
             LegacyComponentSerializer.builder().character('§')
                     .useUnusualXRepeatedCharacterHexFormat().build();
-
-
-    private static final DecimalFormat decimalFormat = new DecimalFormat("0.00");
+    // compiled on first use, dropped with this instance when the language is reloaded
+    private final Map<String, MessageTemplate> templates = new ConcurrentHashMap<>();
+    private static final int MAX_ITEM_COMPONENTS = 512;
+    // item name and hover of a stack of one, by item. Only translation keys and item data end up in here, so the
+    // entries do not depend on the language and survive a reload
+    private static final Map<ItemStack, Component> itemComponents = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ItemStack, Component> eldest) {
+            return size() > MAX_ITEM_COMPONENTS;
+        }
+    };
 
 
     public HMI18n(Hmarket plugin, String language) {
-        instance = this;
         this.plugin = plugin;
         this.language = language;
         load();
+        // published once loaded, so a reload swaps languages without a half-filled instance in between
+        instance = this;
     }
 
     public static Component getComponentOfItem(ItemStack itemStack) {
+        return getComponentOfItem(itemStack, itemStack.getAmount());
+    }
+
+    /**
+     * @param amount amount to show, may exceed the stack size of the item
+     */
+    public static Component getComponentOfItem(ItemStack itemStack, int amount) {
+        // stacks of one are their own template, which saves a copy for the common case of a single item
+        var template = itemStack.getAmount() == 1 ? itemStack : itemStack.asOne();
+        Component component;
+        synchronized (itemComponents) {
+            component = itemComponents.get(template);
+        }
+        if (component == null) {
+            component = buildComponentOfItem(template);
+            synchronized (itemComponents) {
+                // the key is copied, the caller may still change its stack
+                itemComponents.put(template == itemStack ? itemStack.clone() : template, component);
+            }
+        }
+        return component.append(Component.text(" x " + amount));
+    }
+
+    private static @NotNull Component buildComponentOfItem(@NotNull ItemStack template) {
         Component component;
-        if (itemStack.hasItemMeta() && itemStack.getItemMeta().hasDisplayName()) {
-            component = itemStack.displayName();
-        } else if (itemStack.hasItemMeta() && itemStack.getItemMeta().hasItemName()) {
-            component = itemStack.getItemMeta().itemName();
-        } else if (itemStack.getItemMeta() instanceof SkullMeta && ((SkullMeta) itemStack.getItemMeta()).hasOwner()) {
-            var key = itemStack.getType().getItemTranslationKey();
+        var meta = template.hasItemMeta() ? template.getItemMeta() : null;
+        if (meta != null && meta.hasDisplayName()) {
+            component = template.displayName();
+        } else if (meta != null && meta.hasItemName()) {
+            component = meta.itemName();
+        } else if (meta instanceof SkullMeta skullMeta && skullMeta.hasOwner()) {
+            var key = template.getType().getItemTranslationKey();
             component = Component.translatable(key + ".named");
-            component = ((TranslatableComponent)component).args(Component.text(((SkullMeta) itemStack.getItemMeta()).getOwningPlayer().getName()));
+            component = ((TranslatableComponent)component).args(Component.text(skullMeta.getOwningPlayer().getName()));
         }else{
-            component = Component.translatable(Objects.requireNonNull(itemStack.getType().getItemTranslationKey()));
+            component = Component.translatable(Objects.requireNonNull(template.getType().getItemTranslationKey()));
         }
-        component = component.hoverEvent(itemStack);
-        return component.append(Component.text(" x " + itemStack.getAmount()));
+        return component.hoverEvent(template);
     }
 
 //    private static HoverEvent getHoveredItem(ItemStack itemStack) {
@@ -68,21 +102,18 @@ public class HMI18n extends LanguageRepository {
 //    }
 
     @Contract(pure = true)
-    public static Component format(String key, Object... _args) {
-        if (instance == null)
+    public static Component format(String key, Object... args) {
+        var current = instance;
+        if (current == null)
             return legacyComponentSerializer.deserialize("<Not initialized>");
-        var args = Arrays.stream(_args).map(
-                o -> {
-                    if (o instanceof Double) {
-                        return decimalFormat.format(o);
-                    } else if (o instanceof Float) {
-                        return decimalFormat.format(o);
-                    } else {
-                        return o;
-                    }
-                }
-        ).toArray();
-        return legacyComponentSerializer.deserialize(instance.getFormatted(key, args));
+        return current.getTemplate(key).format(legacyComponentSerializer, args);
+    }
+
+    private @NotNull MessageTemplate getTemplate(@NotNull String key) {
+        var template = templates.get(key);
+        if (template != null) return template;
+        // without parameters the substitution returns the raw language string
+        return templates.computeIfAbsent(key, k -> MessageTemplate.compile(getSubstituted(k), legacyComponentSerializer));
     }
 
     @Contract(pure = true)
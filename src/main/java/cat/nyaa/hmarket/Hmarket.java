@@ -3,32 +3,54 @@ package cat.nyaa.hmarket;
 import cat.nyaa.ecore.EconomyCore;
 import cat.nyaa.hmarket.api.HMarketAPI;
 import cat.nyaa.hmarket.command.CommandManager;
+import cat.nyaa.hmarket.config.ConfigReloadListener;
 import cat.nyaa.hmarket.config.HMConfig;
+import cat.nyaa.hmarket.db.HMStorageEngine;
 import cat.nyaa.hmarket.db.HmarketDatabaseManager;
+import cat.nyaa.hmarket.db.StorageMaintenance;
+import cat.nyaa.hmarket.journal.TradeJournal;
 import cat.nyaa.hmarket.listener.HMListenerManager;
 import cat.nyaa.hmarket.message.AoMessage;
 import cat.nyaa.hmarket.task.HMTaskManager;
 import cat.nyaa.hmarket.ui.HMarketViewServer;
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import cat.nyaa.hmarket.utils.MainThreadWorkQueue;
+import cat.nyaa.hmarket.utils.PlayerNameCache;
+import cat.nyaa.hmarket.utils.TaskUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public final class Hmarket extends JavaPlugin {
 
     private static Hmarket instance;
     @Nullable
     public EconomyCore economyProvider;
     @Nullable
+    private HMStorageEngine storageEngine;
+    @Nullable
+    private StorageMaintenance storageMaintenance;
+    @Nullable
     private HmarketDatabaseManager databaseManager;
-    private HMConfig hmConfig;
-    private HMI18n i18n;
+    private volatile HMConfig hmConfig;
+    private volatile HMI18n i18n;
     private CommandManager commandManager;
     private HMTaskManager taskManager;
     private HMListenerManager listenerManager;
     private HMarketAPI api;
     private HMarketViewServer viewServer;
     private AoMessage aoMessage;
+    private PlayerNameCache playerNameCache;
+    private MainThreadWorkQueue workQueue;
+    @Nullable
+    private TradeJournal tradeJournal;
+    private final List<ConfigReloadListener> reloadListeners = new CopyOnWriteArrayList<>();
 
     public static Hmarket getInstance() {
         return instance;
@@ -58,14 +80,42 @@ public final class Hmarket extends JavaPlugin {
             return;
         }
         this.hmConfig = new HMConfig(this);
+        HMLogUtils.start(this, hmConfig);
+        this.workQueue = new MainThreadWorkQueue(hmConfig.mainThreadBudgetMs);
+        TaskUtils.async.setWorkQueue(workQueue);
         this.i18n = new HMI18n(this, hmConfig.language);
         this.commandManager = new CommandManager(this, i18n);
-        databaseManager = new HmarketDatabaseManager(this);
-        this.taskManager = new HMTaskManager(this);
-        this.viewServer = new HMarketViewServer(this);
-        this.aoMessage = new AoMessage(this);
+        storageEngine = new HMStorageEngine(this, hmConfig.storageQueueCapacity);
+        databaseManager = new HmarketDatabaseManager(this, storageEngine);
+        storageMaintenance = new StorageMaintenance(this, storageEngine, hmConfig);
+        this.playerNameCache = new PlayerNameCache(hmConfig, databaseManager);
+        this.taskManager = new HMTaskManager(this, hmConfig);
+        this.viewServer = new HMarketViewServer(this, hmConfig);
+        this.aoMessage = new AoMessage(this, storageEngine);
         this.listenerManager = new HMListenerManager(this);
-        this.api = new HMarketAPI(databaseManager, economyProvider, hmConfig);
+        if (hmConfig.journalEnabled) {
+            this.tradeJournal = new TradeJournal(new File(getDataFolder(), "journal"), hmConfig.journalFlushIntervalMs);
+        }
+        this.api = new HMarketAPI(databaseManager, economyProvider, hmConfig, tradeJournal);
+        reloadListeners.add(HMLogUtils::onConfigReload);
+        reloadListeners.add((previous, current) -> workQueue.setBudgetMillis(current.mainThreadBudgetMs));
+        reloadListeners.add(api);
+        reloadListeners.add(taskManager);
+        reloadListeners.add(viewServer);
+        var maintenance = storageMaintenance;
+        reloadListeners.add((previous, current) -> maintenance.setConfig(current));
+    }
+
+    public HMConfig getHMConfig() {
+        return hmConfig;
+    }
+
+    public @Nullable HMStorageEngine getStorageEngine() {
+        return storageEngine;
+    }
+
+    public @Nullable StorageMaintenance getStorageMaintenance() {
+        return storageMaintenance;
     }
 
     public AoMessage getAoMessage() {
@@ -76,6 +126,14 @@ public final class Hmarket extends JavaPlugin {
         return viewServer;
     }
 
+    public MainThreadWorkQueue getWorkQueue() {
+        return workQueue;
+    }
+
+    public PlayerNameCache getPlayerNameCache() {
+        return playerNameCache;
+    }
+
     private boolean setupEconomy() {
         var rsp = Bukkit.getServicesManager().getRegistration(EconomyCore.class);
         if (rsp != null) {
@@ -87,9 +145,12 @@ public final class Hmarket extends JavaPlugin {
 
     @Override
     public void onDisable() {
-        if (databaseManager != null) {
-            databaseManager.close();
-            databaseManager = null;
+        reloadListeners.clear();
+        if (api != null) {
+            // pending sale digests go out while the message store is still open
+            api.getMarketAPI().flushSaleDigests(true);
+            // the scheduler is gone by now, so deposit here and wait for the journal
+            api.getSystemVault().settle(true);
         }
         if (taskManager != null) {
             taskManager.destructor();
@@ -107,10 +168,81 @@ public final class Hmarket extends JavaPlugin {
             viewServer.destrutor();
             viewServer = null;
         }
+        if (playerNameCache != null) {
+            playerNameCache.destructor();
+            playerNameCache = null;
+        }
+        if (tradeJournal != null) {
+            tradeJournal.close();
+            tradeJournal = null;
+        }
+        if (workQueue != null) {
+            // nothing drains the queue from here on, run what is left while the database is still open
+            TaskUtils.async.setWorkQueue(null);
+            workQueue.drainAll();
+            workQueue = null;
+        }
+        // last, the tasks queued by the components above still need the database
+        databaseManager = null;
+        storageMaintenance = null;
+        if (storageEngine != null) {
+            storageEngine.shutdown();
+            storageEngine = null;
+        }
+        HMLogUtils.stop();
         instance = null;
     }
 
+    /**
+     * re-reads config.yml and the language file and hands the new values to the running components.
+     * The database, the storage thread and open views stay as they are.
+     */
     public void onReload() {
+        if (api == null) {
+            // enabling failed or never finished, nothing to reconfigure
+            onFullReload();
+            return;
+        }
+        var previous = hmConfig;
+        var current = new HMConfig(this);
+        this.i18n = new HMI18n(this, current.language);
+        this.hmConfig = current;
+        reloadTradeJournal(previous, current);
+        for (ConfigReloadListener listener : reloadListeners) {
+            try {
+                listener.onConfigReload(previous, current);
+            } catch (Exception e) {
+                HMLogUtils.error("config.reload-listener-failed", "listener", listener.getClass().getName(), "error", e);
+            }
+        }
+        if (previous.storageQueueCapacity != current.storageQueueCapacity
+                || previous.playerNameCacheMaxSize != current.playerNameCacheMaxSize
+                || previous.playerNameCacheRefreshMinutes != current.playerNameCacheRefreshMinutes
+                || previous.signLoadByRegion != current.signLoadByRegion
+                || previous.signDisplayEnabled != current.signDisplayEnabled) {
+            HMLogUtils.warning("config.reload-needs-full",
+                    "note", "storage queue, player name cache and sign settings take effect after /h reload full");
+        }
+        HMLogUtils.info("config.reloaded", "language", current.language);
+    }
+
+    private void reloadTradeJournal(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        var restart = current.journalEnabled != (tradeJournal != null)
+                || (current.journalEnabled && previous.journalFlushIntervalMs != current.journalFlushIntervalMs);
+        if (!restart) return;
+        var old = tradeJournal;
+        tradeJournal = current.journalEnabled
+                ? new TradeJournal(new File(getDataFolder(), "journal"), current.journalFlushIntervalMs)
+                : null;
+        api.setTradeJournal(tradeJournal);
+        // after the swap, so appends racing the close land in the new journal or are dropped by the closed one
+        if (old != null) old.close();
+    }
+
+    /**
+     * disables and enables the whole plugin, needed for the storage engine and the packet ui mode
+     */
+    public void onFullReload() {
         onDisable();
         onLoad();
         onEnable();
@@ -0,0 +1,68 @@
+package cat.nyaa.hmarket;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.text.DecimalFormat;
+import java.util.IllegalFormatException;
+
+/**
+ * A language string prepared once for formatting.
+ * <p>
+ * Strings without format specifiers are parsed into their component once and shared. Everything else goes through
+ * {@link String#format} and one legacy parse per call, exactly as before templates existed, so the output always
+ * matches java.util.Formatter. Doubles and floats are rendered with two decimals. Instances are immutable and safe to
+ * share between threads.
+ */
+final class MessageTemplate {
+    private static final ThreadLocal<DecimalFormat> DECIMAL_FORMAT = ThreadLocal.withInitial(() -> new DecimalFormat("0.00"));
+    private final String raw;
+    // null if the string has format specifiers
+    @Nullable
+    private final Component constant;
+
+    private MessageTemplate(@NotNull String raw, @Nullable Component constant) {
+        this.raw = raw;
+        this.constant = constant;
+    }
+
+    static @NotNull MessageTemplate compile(@NotNull String raw, @NotNull LegacyComponentSerializer serializer) {
+        if (hasSpecifier(raw)) return new MessageTemplate(raw, null);
+        return new MessageTemplate(raw, serializer.deserialize(raw.replace("%%", "%")));
+    }
+
+    /**
+     * @return true if {@code raw} has a % that is not part of a %% escape
+     */
+    private static boolean hasSpecifier(@NotNull String raw) {
+        for (int i = 0; i < raw.length(); i++) {
+            if (raw.charAt(i) != '%') continue;
+            if (i + 1 < raw.length() && raw.charAt(i + 1) == '%') {
+                i++;
+                continue;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    @NotNull Component format(@NotNull LegacyComponentSerializer serializer, Object @NotNull ... args) {
+        if (constant != null) return constant;
+        var formatArgs = args;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] instanceof Double || args[i] instanceof Float) {
+                if (formatArgs == args) formatArgs = args.clone();
+                formatArgs[i] = DECIMAL_FORMAT.get().format(args[i]);
+            }
+        }
+        String formatted;
+        try {
+            formatted = String.format(raw, formatArgs);
+        } catch (IllegalFormatException e) {
+            formatted = raw;
+        }
+        return serializer.deserialize(formatted);
+    }
+}
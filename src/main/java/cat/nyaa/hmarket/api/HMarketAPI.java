@@ -2,24 +2,40 @@ package cat.nyaa.hmarket.api;
 
 import cat.nyaa.ecore.EconomyCore;
 import cat.nyaa.hmarket.api.implementations.MarketImpl;
+import cat.nyaa.hmarket.api.implementations.ShopFrameImpl;
 import cat.nyaa.hmarket.api.implementations.ShopLocationImpl;
+import cat.nyaa.hmarket.api.implementations.SystemVaultAccumulator;
+import cat.nyaa.hmarket.config.ConfigReloadListener;
 import cat.nyaa.hmarket.config.HMConfig;
 import cat.nyaa.hmarket.db.HmarketDatabaseManager;
+import cat.nyaa.hmarket.journal.TradeJournal;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-public class HMarketAPI {
+import java.util.Optional;
+
+public class HMarketAPI implements ConfigReloadListener {
 
     private final HmarketDatabaseManager databaseManager;
     private final EconomyCore economyCore;
-    private final HMConfig config;
+    private volatile HMConfig config;
     private final MarketImpl marketAPI;
     private final IMarketShopLocation shopLocationApi;
+    private final IMarketShopFrame shopFrameApi;
+    private final SystemVaultAccumulator systemVault;
+    @Nullable
+    private volatile TradeJournal tradeJournal;
 
-    public HMarketAPI(HmarketDatabaseManager databaseManager, EconomyCore economyCore, HMConfig config) {
+    public HMarketAPI(HmarketDatabaseManager databaseManager, EconomyCore economyCore, HMConfig config,
+                      @Nullable TradeJournal tradeJournal) {
         this.databaseManager = databaseManager;
+        this.tradeJournal = tradeJournal;
         this.economyCore = economyCore;
         this.config = config;
+        this.systemVault = new SystemVaultAccumulator(databaseManager, economyCore);
         this.marketAPI = new MarketImpl(this);
         this.shopLocationApi = new ShopLocationImpl(this);
+        this.shopFrameApi = new ShopFrameImpl(this);
     }
 
     public EconomyCore getEconomyCore() {
@@ -34,6 +50,12 @@ public class HMarketAPI {
         return config;
     }
 
+    @Override
+    public void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        this.config = current;
+        marketAPI.onConfigReload(previous, current);
+    }
+
     public IMarketAPI getMarketAPI() {
         return marketAPI;
     }
@@ -42,5 +64,23 @@ public class HMarketAPI {
 
         return shopLocationApi;
     }
-}
 
+    public IMarketShopFrame getShopFrameApi() {
+        return shopFrameApi;
+    }
+
+    public SystemVaultAccumulator getSystemVault() {
+        return systemVault;
+    }
+
+    /**
+     * empty if the trade journal is disabled
+     */
+    public Optional<TradeJournal> getTradeJournal() {
+        return Optional.ofNullable(tradeJournal);
+    }
+
+    public void setTradeJournal(@Nullable TradeJournal tradeJournal) {
+        this.tradeJournal = tradeJournal;
+    }
+}
@@ -1,6 +1,7 @@
 package cat.nyaa.hmarket.api;
 
 import cat.nyaa.hmarket.api.data.MarketBuyResult;
+import cat.nyaa.hmarket.api.data.MarketListingSummary;
 import cat.nyaa.hmarket.api.data.MarketOfferResult;
 import cat.nyaa.hmarket.db.data.ShopItemData;
 import org.bukkit.entity.Player;
@@ -22,9 +23,34 @@ public interface IMarketAPI {
 
     CompletableFuture<List<ShopItemData>> getShopItems(UUID marketId);
 
-    void updateItem(long begin, long now);
+    /**
+     * charges the storage fee of up to {@code maxListings} listings whose fee is due. Main thread only.
+     */
+    void processStorageFees(int maxListings);
+
+    /**
+     * number of listings waiting for their next storage fee
+     */
+    int getScheduledStorageFees();
 
     double getTaxRate(@NotNull ShopItemData shopItemData);
 
-    void commandBuy(@NotNull Player player, @NotNull UUID marketId, int itemId, int amount);
+    /**
+     * buys and tells the player the result
+     *
+     * @return completes once the player has been told
+     */
+    CompletableFuture<MarketBuyResult> commandBuy(@NotNull Player player, @NotNull UUID marketId, int itemId, int amount);
+
+    /**
+     * listing count and cheapest price of a market, kept in memory once the market has been loaded
+     */
+    @NotNull CompletableFuture<MarketListingSummary> getListingSummary(@NotNull UUID marketId);
+
+    /**
+     * sends the sale digests whose window has expired, or all of them if forced. Main thread only.
+     */
+    void flushSaleDigests(boolean force);
+
+    void addListingListener(@NotNull MarketListingListener listener);
 }
@@ -0,0 +1,39 @@
+package cat.nyaa.hmarket.api;
+
+import cat.nyaa.hmarket.db.data.ShopFrameData;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Optional;
+import java.util.UUID;
+
+public interface IMarketShopFrame {
+    void onFrameInteract(@NotNull ItemFrame frame, @NotNull Player player, @NotNull Cancellable event);
+
+    void onFrameCreate(@NotNull Player owner, @NotNull ItemFrame frame, int itemId);
+
+    void onFrameRemove(@NotNull Player player, @NotNull ItemFrame frame);
+
+    boolean isFrameProtected(@NotNull Entity entity);
+
+    Optional<ShopFrameData> getFrameData(@NotNull UUID frameId);
+
+    void onWorldLoad(@NotNull World world);
+
+    void onWorldUnload(@NotNull World world);
+
+    /**
+     * refreshes the frames of the chunk, their listings may have changed while it was unloaded
+     */
+    void onEntitiesLoad(@NotNull Chunk chunk);
+
+    /**
+     * applies pending display updates, at most one per frame. Called once per tick on the main thread.
+     */
+    void flushDisplays();
+}
@@ -3,6 +3,8 @@ package cat.nyaa.hmarket.api;
 import cat.nyaa.hmarket.api.data.BlockLocationData;
 import cat.nyaa.hmarket.db.data.ShopLocationData;
 import net.kyori.adventure.text.Component;
+import org.bukkit.Chunk;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.Player;
 import org.bukkit.event.block.Action;
@@ -11,18 +13,59 @@ import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public interface IMarketShopLocation {
+    /**
+     * @return true once the shop locations around the position are loaded; until then every sign and sign base
+     * there is treated as protected
+     */
+    boolean isReady(@NotNull World world, int blockX, int blockZ);
+
+    void onWorldLoad(@NotNull World world);
+
+    /**
+     * @return milliseconds the shop locations of each loaded world took to load, worlds still loading are missing.
+     * Empty when shop locations are loaded by region.
+     */
+    @NotNull Map<String, Long> getWorldWarmupMillis();
+
+    void onWorldUnload(@NotNull World world);
+
+    /**
+     * loads the region of the chunk if shop locations are loaded by region, and redraws its shop signs
+     */
+    void onChunkLoad(@NotNull Chunk chunk);
+
+    /**
+     * applies pending stock and price updates to shop signs. Called once per tick on the main thread.
+     */
+    void flushSignDisplays();
+
     void onSignClick(@NotNull BlockLocationData blockLocationData, Player player, @NotNull PlayerInteractEvent event);
 
     void onSignChange(@NotNull BlockLocationData fromLocation, @NotNull Player owner, @NotNull String[] lines, @NotNull Block block);
 
     boolean isBlockProtected(@NotNull Block block, @Nullable Player player);
 
+    /**
+     * removes the blocks that are protected from environment changes (explosions, pistons, ...)
+     *
+     * @param blocks blocks to check, protected ones are removed in place
+     */
+    void removeProtectedBlocks(@NotNull Collection<Block> blocks);
+
+    /**
+     * @param blocks blocks to check
+     * @return true if any of the blocks is protected from environment changes
+     */
+    boolean isAnyBlockProtected(@NotNull Collection<Block> blocks);
+
     void onSignDestroy(@NotNull BlockLocationData fromLocation, @NotNull UUID playerId);
 
     Optional<ShopLocationData> getLocationData(BlockLocationData blockLocationData);
@@ -0,0 +1,14 @@
+package cat.nyaa.hmarket.api;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.UUID;
+
+/**
+ * Notified after a listing is created, bought from, withdrawn or removed.
+ * Called on whatever thread finished the change, implementations must be thread safe.
+ */
+@FunctionalInterface
+public interface MarketListingListener {
+    void onListingChanged(@NotNull UUID marketId, int itemId);
+}
@@ -0,0 +1,13 @@
+package cat.nyaa.hmarket.api.data;
+
+/**
+ * @param listings number of listings with stock left
+ * @param minPrice cheapest unit price among them, 0 if there are none
+ */
+public record MarketListingSummary(int listings, double minPrice) {
+    public static final MarketListingSummary EMPTY = new MarketListingSummary(0, 0);
+
+    public boolean isEmpty() {
+        return listings <= 0;
+    }
+}
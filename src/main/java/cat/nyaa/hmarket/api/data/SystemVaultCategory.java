@@ -0,0 +1,10 @@
+package cat.nyaa.hmarket.api.data;
+
+/**
+ * kinds of income paid into the system vault, stored by name in the vault journal
+ */
+public enum SystemVaultCategory {
+    TAX,
+    LISTING_FEE,
+    STORAGE_FEE
+}
@@ -0,0 +1,14 @@
+package cat.nyaa.hmarket.api.data;
+
+import java.util.Map;
+
+/**
+ * @param accrued     income recorded since the plugin was enabled
+ * @param settled     income deposited into the system vault since the plugin was enabled, including income
+ *                    left unsettled by the previous run
+ * @param pending     income recorded but not deposited yet
+ * @param settlements number of deposits made
+ */
+public record SystemVaultTotals(Map<SystemVaultCategory, Double> accrued, Map<SystemVaultCategory, Double> settled,
+                                double pending, int settlements) {
+}
@@ -1,13 +1,15 @@
 package cat.nyaa.hmarket.api.implementations;
 
 import cat.nyaa.hmarket.HMI18n;
-import cat.nyaa.hmarket.Hmarket;
 import cat.nyaa.hmarket.api.HMarketAPI;
 import cat.nyaa.hmarket.api.IMarketAPI;
+import cat.nyaa.hmarket.api.MarketListingListener;
 import cat.nyaa.hmarket.api.data.MarketBuyResult;
+import cat.nyaa.hmarket.api.data.MarketListingSummary;
 import cat.nyaa.hmarket.api.data.MarketOfferResult;
+import cat.nyaa.hmarket.api.data.SystemVaultCategory;
+import cat.nyaa.hmarket.config.HMConfig;
 import cat.nyaa.hmarket.db.data.ShopItemData;
-import cat.nyaa.hmarket.message.AoMessage;
 import cat.nyaa.hmarket.utils.*;
 import cat.nyaa.nyaacore.Pair;
 import cat.nyaa.nyaacore.utils.InventoryUtils;
@@ -24,15 +26,23 @@ import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 import static cat.nyaa.hmarket.HMI18n.getComponentOfItem;
 
 public class MarketImpl implements IMarketAPI {
     private final HMarketAPI marketApi;
+    private final List<MarketListingListener> listingListeners = new CopyOnWriteArrayList<>();
+    private final MarketListingCounters listingCounters;
+    private final SaleDigestAggregator saleDigests;
+    private final StorageFeeScheduler storageFees = new StorageFeeScheduler();
 
     public MarketImpl(HMarketAPI marketApi) {
         this.marketApi = marketApi;
+        this.listingCounters = new MarketListingCounters(marketApi.getDatabaseManager());
+        this.saleDigests = new SaleDigestAggregator(marketApi.getConfig().saleDigestWindowSeconds);
+        loadStorageFeeSchedule();
     }
 
     @Override
@@ -55,6 +65,7 @@ public class MarketImpl implements IMarketAPI {
             return CompletableFuture.completedFuture(MarketOfferResult.fail(MarketOfferResult.MarketOfferStatus.NOT_ENOUGH_MONEY));
         }
         var limit = marketId.equals(MarketIdUtils.getSystemShopId()) ? marketApi.getConfig().limitSlotsMarket : marketApi.getConfig().limitSlotsSignshopSell;
+        var offeredAt = TimeUtils.getUnixTimeStampNow();
         return marketApi.getDatabaseManager().addItemToShop(items, items.getAmount(), ownerId,
                         marketId, price, limit)
                 .thenApply(
@@ -65,10 +76,17 @@ public class MarketImpl implements IMarketAPI {
                             return MarketOfferResult.success(optionalItemId.get());
                         }
                 )
-                .thenComposeAsync((result) -> TaskUtils.async.runSyncMethod(() -> {
+                .thenComposeAsync((result) -> TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.HIGH, () -> {
                     if (result.isSuccess()) {
+                        result.itemId().ifPresent(itemId -> {
+                            listingCounters.onOffer(marketId, itemId, items.getAmount(), price);
+                            notifyListingChanged(marketId, itemId);
+                            scheduleStorageFee(itemId, marketId, offeredAt, offeredAt, true);
+                            marketApi.getTradeJournal().ifPresent(journal -> journal.offer(ownerId, marketId, itemId,
+                                    items.getType().name(), items.getAmount(), price, fee));
+                        });
                         onShopOffer(player, marketId, items, price);
-                        marketApi.getEconomyCore().depositSystemVault(fee);
+                        marketApi.getSystemVault().record(SystemVaultCategory.LISTING_FEE, fee);
                     } else {
                         HMInventoryUtils.giveOrDropItem(player, items);
                         marketApi.getEconomyCore().depositPlayer(ownerId, fee);
@@ -122,7 +140,8 @@ public class MarketImpl implements IMarketAPI {
     }
 
     private void onShopOffer(@NotNull Player player, @NotNull UUID marketId, @NotNull ItemStack items, double price) {
-        HMLogUtils.logInfo("Player " + player.getName() + " has offered " + items.getType() + " * " + items.getAmount() + " for " + price + " to market " + marketId);
+        HMLogUtils.info("market.offer", "player", player.getName(), "item", items.getType(), "amount", items.getAmount(),
+                "price", price, "market", marketId);
         if (getListingFee(marketId) != 0)
             HMI18n.send(player, "info.market.sellfee", getListingFee(marketId));
         if (marketId.equals(MarketIdUtils.getSystemShopId())) {
@@ -153,7 +172,7 @@ public class MarketImpl implements IMarketAPI {
                 return Pair.of(MarketBuyResult.fail(MarketBuyResult.MarketBuyStatus.PLAYER_OWNS_ITEM), shopItemData);
             }
 
-            return Pair.of(TaskUtils.async.getSyncDefault(() -> {
+            return Pair.of(TaskUtils.async.getSyncDefault(MainThreadWorkQueue.Priority.HIGH, () -> {
                 var cost = shopItemData.price() * amount;
                 var tax = cost * getTaxRate(shopItemData);
                 if (marketApi.getEconomyCore().getPlayerBalance(playerId) < cost + tax) {
@@ -189,50 +208,38 @@ public class MarketImpl implements IMarketAPI {
             return marketApi.getDatabaseManager().buyItemFromMarket(marketId, itemId, amount, shopItemData.price(), shopItemData.itemNbt()).thenApplyAsync((b) -> {
                 if (b.isEmpty() || !b.get()) {
                     if (paidCost.get() > 0 || paidTax.get() > 0) {
-                        if (!TaskUtils.async.getSyncDefault(() -> marketApi.getEconomyCore().depositPlayer(playerId, paidCost.get() + paidTax.get()), false)) {
-                            HMLogUtils.logWarning("Transaction Failed:Player " + playerId + " refund failed");
-                            HMLogUtils.logWarning("cosy: " + paidCost.get() + ",tax:" + paidCost.get());
+                        if (!TaskUtils.async.getSyncDefault(MainThreadWorkQueue.Priority.HIGH, () -> marketApi.getEconomyCore().depositPlayer(playerId, paidCost.get() + paidTax.get()), false)) {
+                            HMLogUtils.audit("market.buy.refund-failed", "player", playerId, "cost", paidCost.get(), "tax", paidTax.get());
                         }
                     }
                     return MarketBuyResult.fail(MarketBuyResult.MarketBuyStatus.CANNOT_BUY_ITEM);
                 }
-                var itemResult = TaskUtils.async.getSyncDefault(() -> {
+                listingCounters.onTaken(marketId, itemId, amount);
+                notifyListingChanged(marketId, itemId);
+                var itemResult = TaskUtils.async.getSyncDefault(MainThreadWorkQueue.Priority.HIGH, () -> {
                     ItemStack itemStack = giveItem(player, shopItemData.itemNbt(), marketId, amount);
-                    if (paidTax.get() > 0) {
-                        if (!marketApi.getEconomyCore().depositSystemVault(paidTax.get())) {
-                            HMLogUtils.logWarning("Transaction Failed:Failed to deposit system vault");
-                            HMLogUtils.logWarning("cost: " + paidTax.get());
-                            HMLogUtils.logWarning("from: " + playerId);
-                        }
-                    }
+                    marketApi.getSystemVault().record(SystemVaultCategory.TAX, paidTax.get());
                     if (paidCost.get() > 0) {
                         if (!marketApi.getEconomyCore().depositPlayer(shopItemData.owner(), paidCost.get())) {
-                            HMLogUtils.logWarning("Transaction Failed:Failed to deposit player " + shopItemData.owner());
-                            HMLogUtils.logWarning("cost: " + (paidCost.get()));
-                            HMLogUtils.logWarning("from: " + playerId);
+                            HMLogUtils.audit("market.buy.deposit-failed", "seller", shopItemData.owner(), "cost", paidCost.get(), "from", playerId);
                         }
                     }
 
-                    //send offline (or online if online) message
-                    var sold_message_notice1 = HMI18n.format("info.market.sold_notice1", player.getName());
-                    var sold_message_notice2 = HMI18n.format("info.market.sold_notice2", paidCost.get(), paidTax.get(), getTaxRate(marketId) * 100);
-
-                    AoMessage.getInstanceOptional().ifPresent(
-                            aoMessage -> aoMessage.sendMessageTo(
-                                    shopItemData.owner(),
-                                    sold_message_notice1.append(HMI18n.getComponentOfItem(itemStack)).appendNewline().append(sold_message_notice2)
-                            )
-                    );
+                    //send offline (or online if online) message, merged with the other sales of the window
+                    saleDigests.onSale(shopItemData.owner(), player.getName(), itemId, itemStack,
+                            paidCost.get(), paidTax.get(), getTaxRate(marketId) * 100);
 
 //                    onShopSold(player, shopItemData, itemStack, amount);
 
-                    HMLogUtils.logInfo("Player " + playerId + " bought " + itemStack + " from market " + marketId);
-                    HMLogUtils.logInfo("cost: " + paidCost.get() + " tax: " + paidTax.get() + "," + shopItemData.owner() + " received: " + (paidCost.get() - paidTax.get()));
+                    marketApi.getTradeJournal().ifPresent(journal -> journal.buy(playerId, shopItemData.owner(), marketId,
+                            itemId, itemStack.getType().name(), amount, shopItemData.price(), paidCost.get(), paidTax.get()));
+                    HMLogUtils.info("market.buy", "player", playerId, "item", itemStack.getType(), "amount", amount,
+                            "listing", itemId, "market", marketId, "cost", paidCost.get(), "tax", paidTax.get(), "seller", shopItemData.owner());
                     return true;
                 }, false);
                 if (!itemResult) {
-                    HMLogUtils.logWarning("Failed to give item to player " + player.getUniqueId() + " : Task failed");
-                    HMLogUtils.logWarning("item data : " + shopItemData);
+                    HMLogUtils.audit("market.buy.give-failed", "player", playerId, "listing", itemId, "amount", amount,
+                            "owner", shopItemData.owner(), "cost", paidCost.get(), "tax", paidTax.get());
                     return MarketBuyResult.fail(MarketBuyResult.MarketBuyStatus.TASK_FAILED);
                 }
                 return MarketBuyResult.success();
@@ -262,9 +269,13 @@ public class MarketImpl implements IMarketAPI {
                             if (withdrawResult.isEmpty() || !withdrawResult.get()) {
                                 return MarketBuyResult.fail(MarketBuyResult.MarketBuyStatus.CANNOT_BUY_ITEM);
                             }
-                            Bukkit.getScheduler().runTask(Hmarket.getInstance(), () ->
-                                    giveItem(player, shopItemData.itemNbt(), shopItemData.market(), amount)
-                            );
+                            listingCounters.onTaken(shopItemData.market(), shopItemData.itemId(), amount);
+                            notifyListingChanged(shopItemData.market(), shopItemData.itemId());
+                            TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.HIGH, () -> {
+                                var itemStack = giveItem(player, shopItemData.itemNbt(), shopItemData.market(), amount);
+                                marketApi.getTradeJournal().ifPresent(journal -> journal.withdraw(playerId, shopItemData.market(),
+                                        shopItemData.itemId(), itemStack.getType().name(), amount));
+                            });
                             return MarketBuyResult.success(true);
                         }
                 );
@@ -295,8 +306,8 @@ public class MarketImpl implements IMarketAPI {
 
     //    }
     @Override
-    public void commandBuy(@NotNull Player player, @NotNull UUID marketId, int itemId, int amount) {
-        buy(player, marketId, itemId, amount).thenAccept((marketBuyResult) -> {
+    public CompletableFuture<MarketBuyResult> commandBuy(@NotNull Player player, @NotNull UUID marketId, int itemId, int amount) {
+        return buy(player, marketId, itemId, amount).thenApply((marketBuyResult) -> {
             switch (marketBuyResult.status()) {
                 case SUCCESS ->
                         HMI18n.sendSync(player.getUniqueId(), "info.ui.market.buy_success");
@@ -313,9 +324,35 @@ public class MarketImpl implements IMarketAPI {
                 case PLAYER_OWNS_ITEM ->
                         HMI18n.sendSync(player.getUniqueId(), "info.ui.market.player_owns_item");
             }
+            return marketBuyResult;
         });
     }
 
+    @Override
+    public void addListingListener(@NotNull MarketListingListener listener) {
+        listingListeners.add(listener);
+    }
+
+    @Override
+    public void flushSaleDigests(boolean force) {
+        saleDigests.flush(force);
+    }
+
+    @Override
+    public @NotNull CompletableFuture<MarketListingSummary> getListingSummary(@NotNull UUID marketId) {
+        return listingCounters.getSummary(marketId);
+    }
+
+    private void notifyListingChanged(@NotNull UUID marketId, int itemId) {
+        for (MarketListingListener listener : listingListeners) {
+            try {
+                listener.onListingChanged(marketId, itemId);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     @Override
     public CompletableFuture<List<ShopItemData>> getShopItems(UUID marketId) {
         return marketApi.getDatabaseManager().getAllShopItems(marketId).thenApplyAsync(shopItemDataList -> {
@@ -325,8 +362,11 @@ public class MarketImpl implements IMarketAPI {
                 if (shopItemData.amount() <= 0) {
                     try {
                         var removeOptional = marketApi.getDatabaseManager().removeShopItem(shopItemData.itemId()).get();//todo Merge SQL
-                        if (removeOptional.isPresent() && removeOptional.get() > 0)
+                        if (removeOptional.isPresent() && removeOptional.get() > 0) {
+                            listingCounters.onRemoved(shopItemData.market(), shopItemData.itemId());
+                            notifyListingChanged(shopItemData.market(), shopItemData.itemId());
                             return true;
+                        }
                     } catch (InterruptedException | ExecutionException e) {
                         e.printStackTrace();
                     }
@@ -393,37 +433,84 @@ public class MarketImpl implements IMarketAPI {
         }
     }
 
+    /**
+     * called after the config has been swapped, {@code marketApi.getConfig()} returns {@code current} already
+     */
+    public void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        saleDigests.setWindowSeconds(current.saleDigestWindowSeconds);
+        if (storageFeeChanged(previous, current)) {
+            // due times depend on the free days, and listings of a market may start or stop being billed
+            storageFees.clear();
+            loadStorageFeeSchedule();
+        }
+    }
+
+    private static boolean storageFeeChanged(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        return previous.storageMarketFreedays != current.storageMarketFreedays
+                || previous.storageMarketBase != current.storageMarketBase
+                || previous.storageMarketPercent != current.storageMarketPercent
+                || previous.storageSignshopFreedays != current.storageSignshopFreedays
+                || previous.storageSignshopBase != current.storageSignshopBase
+                || previous.storageSignshopPercent != current.storageSignshopPercent;
+    }
+
     @Override
-    public void updateItem(long begin, long now) {
-        if (begin >= now) return;
-        marketApi.getDatabaseManager().getNeedUpdateItems(begin).thenAcceptAsync(shopItemDataList -> {
-            if (shopItemDataList.isEmpty()) return;
-            shopItemDataList.get().forEach(shopItemData -> {
-                var marketId = shopItemData.market();
-                var keepItems = true;
-                keepItems = storageFee(TimeUtils.getUnixTimeStampNow(), getMarketStorageFreeDays(marketId), getMarketStorageFeeBase(marketId), getMarketStorageFeeRate(marketId), shopItemData);
-                if (!keepItems) {
-                    marketApi.getDatabaseManager().removeShopItem(shopItemData.itemId()).thenAccept(
-                            (result) -> {
-                                if (result.isEmpty() || result.get() <= 0) {
-                                    HMLogUtils.logWarning("can't remove item: " + shopItemData.itemId() + " in shop " + shopItemData.market());
-                                } else {
-                                    HMLogUtils.logInfo("Item " + shopItemData.itemId() + " removed from shop " + shopItemData.market());
-                                }
-                            }
-                    );
-                    HMLogUtils.logInfo("Item " + shopItemData.itemId() + " removed from shop " + shopItemData.market());
-                } else {
-                    marketApi.getDatabaseManager().setItemUpdateTime(shopItemData.itemId(), now).thenAccept(
-                            (result) -> {
-                                if (result.isEmpty() || result.get() <= 0) {
-                                    HMLogUtils.logWarning("can't update item " + shopItemData.itemId() + " in shop " + shopItemData.market());
-                                }
-                            }
-                    );
+    public void processStorageFees(int maxListings) {
+        // billing can wait, the due listings stay scheduled until the storage queue drains
+        if (marketApi.getDatabaseManager().isSaturated()) return;
+        var now = TimeUtils.getUnixTimeStampNow();
+        for (var listing : storageFees.pollDue(now, maxListings)) {
+            marketApi.getDatabaseManager().getShopItemData(listing.itemId()).thenAcceptAsync(
+                    shopItemData -> shopItemData.ifPresent(data -> chargeStorageFee(data, now)),
+                    TaskUtils.async.executor(MainThreadWorkQueue.Priority.LOW));
+        }
+    }
+
+    @Override
+    public int getScheduledStorageFees() {
+        return storageFees.size();
+    }
+
+    private void loadStorageFeeSchedule() {
+        marketApi.getDatabaseManager().getStorageFeeSchedule().thenAccept(result -> result.ifPresent(listings ->
+                listings.forEach(listing -> scheduleStorageFee(listing.itemId(), listing.market(),
+                        listing.createdAt(), listing.updatedAt(), false))));
+    }
+
+    private void scheduleStorageFee(int itemId, @NotNull UUID marketId, long createdAt, long updatedAt, boolean replace) {
+        // listings of a market without storage fees are never billed
+        if (getMarketStorageFeeBase(marketId) == 0 && getMarketStorageFeeRate(marketId) == 0) return;
+        storageFees.schedule(itemId, marketId,
+                StorageFeeScheduler.nextDueAt(createdAt, updatedAt, getMarketStorageFreeDays(marketId)), replace);
+    }
+
+    private void chargeStorageFee(@NotNull ShopItemData shopItemData, long now) {
+        // sold out listings are not charged
+        if (shopItemData.amount() <= 0) return;
+        var marketId = shopItemData.market();
+        var keepItems = storageFee(now, getMarketStorageFreeDays(marketId), getMarketStorageFeeBase(marketId), getMarketStorageFeeRate(marketId), shopItemData);
+        if (!keepItems) {
+            marketApi.getDatabaseManager().removeShopItem(shopItemData.itemId()).thenAccept(
+                    (result) -> {
+                        if (result.isEmpty() || result.get() <= 0) {
+                            HMLogUtils.warning("market.update.remove-failed", "listing", shopItemData.itemId(), "market", shopItemData.market());
+                        } else {
+                            listingCounters.onRemoved(shopItemData.market(), shopItemData.itemId());
+                            notifyListingChanged(shopItemData.market(), shopItemData.itemId());
+                            HMLogUtils.info("market.update.removed", "listing", shopItemData.itemId(), "market", shopItemData.market());
+                        }
+                    }
+            );
+            return;
+        }
+        scheduleStorageFee(shopItemData.itemId(), marketId, shopItemData.createdAt(), now, true);
+        marketApi.getDatabaseManager().setItemUpdateTime(shopItemData.itemId(), now).thenAccept(
+                (result) -> {
+                    if (result.isEmpty() || result.get() <= 0) {
+                        HMLogUtils.warning("market.update.touch-failed", "listing", shopItemData.itemId(), "market", shopItemData.market());
+                    }
                 }
-            });
-        });
+        );
     }
 
     private boolean storageFee(long now, double freeDays, double base, double rate, ShopItemData shopItemData) {
@@ -440,11 +527,15 @@ public class MarketImpl implements IMarketAPI {
                     var fee = (base + rate * shopItemData.price()) * billableDays;
                     var balance = marketApi.getEconomyCore().getPlayerBalance(shopItemData.owner());
                     if (marketApi.getEconomyCore().withdrawPlayer(shopItemData.owner(), fee)) {
-                        marketApi.getEconomyCore().depositSystemVault(fee);
-                        HMLogUtils.logInfo("[item update][" + TimeUtils.getUnixTimeStampNow() + "] " + shopItemData.owner() + " paid " + fee + " for storage fee. shop id:" + shopItemData.market());
+                        marketApi.getSystemVault().record(SystemVaultCategory.STORAGE_FEE, fee);
+                        marketApi.getTradeJournal().ifPresent(journal -> journal.storageFee(shopItemData.owner(),
+                                shopItemData.market(), shopItemData.itemId(), shopItemData.price(), fee, true));
+                        HMLogUtils.info("market.update.storage-fee", "owner", shopItemData.owner(), "fee", fee, "listing", shopItemData.itemId(), "market", shopItemData.market());
                         return true;
                     }
-                    HMLogUtils.logInfo("[item update][" + TimeUtils.getUnixTimeStampNow() + "] " + shopItemData.owner() + " not enough money to pay storage fee(" + fee + "). shop id:" + shopItemData.market());
+                    marketApi.getTradeJournal().ifPresent(journal -> journal.storageFee(shopItemData.owner(),
+                            shopItemData.market(), shopItemData.itemId(), shopItemData.price(), fee, false));
+                    HMLogUtils.info("market.update.storage-fee-unpaid", "owner", shopItemData.owner(), "fee", fee, "listing", shopItemData.itemId(), "market", shopItemData.market());
                     return !(balance < fee);
                 }
                 , false);
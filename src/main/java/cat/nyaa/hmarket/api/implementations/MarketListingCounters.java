@@ -0,0 +1,131 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.api.data.MarketListingSummary;
+import cat.nyaa.hmarket.db.HmarketDatabaseManager;
+import cat.nyaa.hmarket.db.data.ShopItemData;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * In-memory stock and price of every listing of the markets somebody asked about.
+ * <p>
+ * A market is loaded with one query the first time its summary is requested, after that it follows the changes
+ * reported by {@link MarketImpl} and is never queried again.
+ */
+public class MarketListingCounters {
+    private final HmarketDatabaseManager databaseManager;
+    private final Map<UUID, MarketCounter> counters = new ConcurrentHashMap<>();
+
+    public MarketListingCounters(@NotNull HmarketDatabaseManager databaseManager) {
+        this.databaseManager = databaseManager;
+    }
+
+    public @NotNull CompletableFuture<MarketListingSummary> getSummary(@NotNull UUID marketId) {
+        var counter = counters.computeIfAbsent(marketId, k -> new MarketCounter());
+        synchronized (counter) {
+            if (counter.loaded) return CompletableFuture.completedFuture(counter.summary());
+            if (counter.loading == null) {
+                counter.loading = load(marketId, counter);
+            }
+            return counter.loading;
+        }
+    }
+
+    private @NotNull CompletableFuture<MarketListingSummary> load(@NotNull UUID marketId, @NotNull MarketCounter counter) {
+        counter.changedWhileLoading = false;
+        return databaseManager.getAllShopItems(marketId).thenApply(result -> {
+            synchronized (counter) {
+                counter.loading = null;
+                if (result.isEmpty()) return MarketListingSummary.EMPTY;
+                counter.reset(result.get());
+                // the result may predate a change we were told about: answer with it, but read again on the next
+                // request instead of queueing another query from the storage thread
+                counter.loaded = !counter.changedWhileLoading;
+                return counter.summary();
+            }
+        });
+    }
+
+    public void onOffer(@NotNull UUID marketId, int itemId, int amount, double price) {
+        update(marketId, counter -> counter.put(itemId, amount, price));
+    }
+
+    public void onTaken(@NotNull UUID marketId, int itemId, int amount) {
+        update(marketId, counter -> counter.take(itemId, amount));
+    }
+
+    public void onRemoved(@NotNull UUID marketId, int itemId) {
+        update(marketId, counter -> counter.remove(itemId));
+    }
+
+    private void update(@NotNull UUID marketId, @NotNull Consumer<MarketCounter> action) {
+        var counter = counters.get(marketId);
+        if (counter == null) return;
+        synchronized (counter) {
+            if (counter.loaded) {
+                action.accept(counter);
+            } else if (counter.loading != null) {
+                counter.changedWhileLoading = true;
+            }
+        }
+    }
+
+    public void clear() {
+        counters.clear();
+    }
+
+    private static class MarketCounter {
+        private final Int2IntOpenHashMap amounts = new Int2IntOpenHashMap();
+        private final Int2DoubleOpenHashMap prices = new Int2DoubleOpenHashMap();
+        private boolean loaded = false;
+        private boolean changedWhileLoading = false;
+        private CompletableFuture<MarketListingSummary> loading;
+
+        private void reset(@NotNull List<ShopItemData> items) {
+            amounts.clear();
+            prices.clear();
+            for (ShopItemData item : items) {
+                put(item.itemId(), item.amount(), item.price());
+            }
+        }
+
+        private void put(int itemId, int amount, double price) {
+            if (amount <= 0) return;
+            amounts.put(itemId, amount);
+            prices.put(itemId, price);
+        }
+
+        private void take(int itemId, int amount) {
+            if (!amounts.containsKey(itemId)) return;
+            var left = amounts.get(itemId) - amount;
+            if (left > 0) {
+                amounts.put(itemId, left);
+            } else {
+                remove(itemId);
+            }
+        }
+
+        private void remove(int itemId) {
+            amounts.remove(itemId);
+            prices.remove(itemId);
+        }
+
+        // a market holds at most a few hundred listings, scanning them is cheaper than keeping them sorted
+        private @NotNull MarketListingSummary summary() {
+            if (prices.isEmpty()) return MarketListingSummary.EMPTY;
+            var minPrice = Double.MAX_VALUE;
+            for (var iterator = prices.values().doubleIterator(); iterator.hasNext(); ) {
+                minPrice = Math.min(minPrice, iterator.nextDouble());
+            }
+            return new MarketListingSummary(prices.size(), minPrice);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.message.AoMessage;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Merges the sale notices of a seller within a time window into one message, with totals per listing.
+ * <p>
+ * A window opens with the first sale of a seller and is sent when it expires, so a seller who is offline for a
+ * day gets a few digests instead of one offline message per sale. Sales taxed at different rates, after a config
+ * change or in markets with their own rate, go to separate digests so every digest states its true rate.
+ * Main thread only.
+ */
+public class SaleDigestAggregator {
+    // buyers named in the header, the rest are only counted
+    private static final int MAX_BUYER_NAMES = 5;
+    private long windowTicks;
+    private final Map<DigestKey, SellerDigest> digests = new LinkedHashMap<>();
+
+    public SaleDigestAggregator(int windowSeconds) {
+        setWindowSeconds(windowSeconds);
+    }
+
+    /**
+     * applies to windows opened from now on
+     */
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowTicks = windowSeconds * 20L;
+    }
+
+    /**
+     * @param seller    who gets the notice
+     * @param buyerName name of the buyer
+     * @param itemId    listing id, sales of the same listing are summed up
+     * @param itemStack item sold, with the amount sold
+     * @param revenue   money paid to the seller
+     * @param tax       tax paid on the sale
+     * @param taxRate   tax rate of the market, in percent
+     */
+    public void onSale(@NotNull UUID seller, @NotNull String buyerName, int itemId, @NotNull ItemStack itemStack,
+                       double revenue, double tax, double taxRate) {
+        var digest = digests.computeIfAbsent(new DigestKey(seller, taxRate),
+                k -> new SellerDigest(Bukkit.getCurrentTick() + windowTicks, taxRate));
+        digest.sales++;
+        digest.buyers.add(buyerName);
+        digest.revenue += revenue;
+        digest.tax += tax;
+        var item = digest.items.computeIfAbsent(itemId, k -> new ItemTotal(itemStack.clone()));
+        item.amount += itemStack.getAmount();
+        item.revenue += revenue;
+        if (windowTicks <= 0) flush(true);
+    }
+
+    /**
+     * @param force send every digest, even if its window has not expired yet
+     */
+    public void flush(boolean force) {
+        if (digests.isEmpty()) return;
+        var now = Bukkit.getCurrentTick();
+        var iterator = digests.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            if (!force && entry.getValue().sendAtTick > now) continue;
+            iterator.remove();
+            send(entry.getKey().seller(), entry.getValue());
+        }
+    }
+
+    private static void send(@NotNull UUID seller, @NotNull SellerDigest digest) {
+        Component message;
+        if (digest.sales == 1) {
+            // a single sale reads the same as before digests existed
+            var item = digest.items.values().iterator().next();
+            message = HMI18n.format("info.market.sold_notice1", digest.buyers.iterator().next())
+                    .append(HMI18n.getComponentOfItem(item.itemStack, item.amount))
+                    .appendNewline()
+                    .append(HMI18n.format("info.market.sold_notice2", digest.revenue, digest.tax, digest.taxRate));
+        } else {
+            message = HMI18n.format("info.market.digest.header", digest.sales, digest.buyers.size(), formatBuyers(digest.buyers));
+            for (ItemTotal item : digest.items.values()) {
+                message = message.appendNewline()
+                        .append(HMI18n.format("info.market.digest.item"))
+                        .append(HMI18n.getComponentOfItem(item.itemStack, item.amount))
+                        .append(HMI18n.format("info.market.digest.item_revenue", item.revenue));
+            }
+            message = message.appendNewline()
+                    .append(HMI18n.format("info.market.digest.total", digest.revenue, digest.tax, digest.taxRate));
+        }
+        var finalMessage = message;
+        AoMessage.getInstanceOptional().ifPresent(aoMessage -> aoMessage.sendMessageTo(seller, finalMessage));
+    }
+
+    private static @NotNull String formatBuyers(@NotNull Set<String> buyers) {
+        if (buyers.size() <= MAX_BUYER_NAMES) return String.join(", ", buyers);
+        return String.join(", ", buyers.stream().limit(MAX_BUYER_NAMES).toList()) + ", ...";
+    }
+
+    private record DigestKey(@NotNull UUID seller, double taxRate) {
+    }
+
+    private static class SellerDigest {
+        private final long sendAtTick;
+        private final double taxRate;
+        private final Set<String> buyers = new LinkedHashSet<>();
+        private final Map<Integer, ItemTotal> items = new LinkedHashMap<>();
+        private int sales = 0;
+        private double revenue = 0;
+        private double tax = 0;
+
+        private SellerDigest(long sendAtTick, double taxRate) {
+            this.sendAtTick = sendAtTick;
+            this.taxRate = taxRate;
+        }
+    }
+
+    private static class ItemTotal {
+        private final ItemStack itemStack;
+        private int amount = 0;
+        private double revenue = 0;
+
+        private ItemTotal(@NotNull ItemStack itemStack) {
+            this.itemStack = itemStack;
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.api.HMarketAPI;
+import cat.nyaa.hmarket.api.IMarketShopFrame;
+import cat.nyaa.hmarket.db.data.ShopFrameData;
+import cat.nyaa.hmarket.db.data.ShopItemData;
+import cat.nyaa.hmarket.utils.BlockPosUtils;
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import cat.nyaa.hmarket.utils.TaskUtils;
+import cat.nyaa.nyaacore.utils.ItemStackUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.entity.Player;
+import org.bukkit.event.Cancellable;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Item frame shops: each frame shows one listing and buys one item per click.
+ * <p>
+ * Frames are tracked by entity id, with a world → chunk → frame ids index for chunk loads and a listing → frame ids
+ * index for stock changes, so no lookup ever scans entities. Display updates are coalesced per frame and applied
+ * once per tick.
+ */
+public class ShopFrameImpl implements IMarketShopFrame {
+    private final HMarketAPI marketApi;
+    private final Map<UUID, ShopFrameData> frames = new ConcurrentHashMap<>();
+    private final Map<String, Long2ObjectOpenHashMap<Set<UUID>>> framesByChunk = new ConcurrentHashMap<>();
+    private final Map<Integer, Set<UUID>> framesByItem = new ConcurrentHashMap<>();
+    // latest listing of each frame waiting for the next flush, empty if the listing is gone or sold out
+    private final Map<UUID, Optional<ShopItemData>> pendingDisplays = new ConcurrentHashMap<>();
+    private final Set<String> loadedWorlds = ConcurrentHashMap.newKeySet();
+
+    public ShopFrameImpl(HMarketAPI marketApi) {
+        this.marketApi = marketApi;
+        marketApi.getMarketAPI().addListingListener((marketId, itemId) -> refreshListing(itemId));
+        Bukkit.getWorlds().forEach(this::onWorldLoad);
+    }
+
+    private void register(@NotNull ShopFrameData frame) {
+        frames.put(frame.frameId(), frame);
+        var chunks = framesByChunk.computeIfAbsent(frame.world(), k -> new Long2ObjectOpenHashMap<>());
+        synchronized (chunks) {
+            chunks.computeIfAbsent(BlockPosUtils.chunkKeyOfBlock(frame.blockX(), frame.blockZ()), k -> new HashSet<>())
+                    .add(frame.frameId());
+        }
+        framesByItem.computeIfAbsent(frame.itemId(), k -> ConcurrentHashMap.newKeySet()).add(frame.frameId());
+    }
+
+    private void unregister(@NotNull UUID frameId) {
+        var frame = frames.remove(frameId);
+        if (frame == null) return;
+        pendingDisplays.remove(frameId);
+        var chunks = framesByChunk.get(frame.world());
+        if (chunks != null) {
+            synchronized (chunks) {
+                var chunkKey = BlockPosUtils.chunkKeyOfBlock(frame.blockX(), frame.blockZ());
+                var chunk = chunks.get(chunkKey);
+                if (chunk != null) {
+                    chunk.remove(frameId);
+                    if (chunk.isEmpty()) chunks.remove(chunkKey);
+                }
+            }
+        }
+        var byItem = framesByItem.get(frame.itemId());
+        if (byItem != null) {
+            byItem.remove(frameId);
+            if (byItem.isEmpty()) framesByItem.remove(frame.itemId(), byItem);
+        }
+    }
+
+    /**
+     * fetches the listing once and queues it for every frame showing it
+     */
+    private void refreshListing(int itemId) {
+        var frameIds = framesByItem.get(itemId);
+        if (frameIds == null || frameIds.isEmpty()) return;
+        marketApi.getDatabaseManager().getShopItemData(itemId).thenAccept(listing -> {
+            var display = listing.filter(shopItemData -> shopItemData.amount() > 0);
+            for (UUID frameId : frameIds) {
+                pendingDisplays.put(frameId, display);
+            }
+        });
+    }
+
+    @Override
+    public void flushDisplays() {
+        if (pendingDisplays.isEmpty()) return;
+        var iterator = pendingDisplays.entrySet().iterator();
+        while (iterator.hasNext()) {
+            var entry = iterator.next();
+            iterator.remove();
+            // an entity id lookup, null if the chunk is not loaded; the frame is refreshed again when it loads
+            if (!(Bukkit.getEntity(entry.getKey()) instanceof ItemFrame frame) || !frame.isValid()) continue;
+            frame.setItem(entry.getValue().map(ShopFrameImpl::toDisplayItem).orElse(null), false);
+        }
+    }
+
+    private static @NotNull ItemStack toDisplayItem(@NotNull ShopItemData shopItemData) {
+        var itemStack = ItemStackUtils.itemFromBase64(shopItemData.itemNbt()).clone();
+        itemStack.setAmount(1);
+        return itemStack;
+    }
+
+    @Override
+    public void onFrameInteract(@NotNull ItemFrame frame, @NotNull Player player, @NotNull Cancellable event) {
+        var shopFrame = frames.get(frame.getUniqueId());
+        if (shopFrame == null) return;
+        event.setCancelled(true);
+        if (shopFrame.owner().equals(player.getUniqueId())) {
+            HMI18n.send(player, "info.frame.owner");
+            return;
+        }
+        // same debounce and per-listing dedupe as the shop views, a double click buys once
+        var purchaseQueue = Hmarket.getInstance().getViewServer().getPurchaseQueue();
+        var playerId = player.getUniqueId();
+        if (!purchaseQueue.tryClick(playerId)) return;
+        purchaseQueue.submit(playerId, shopFrame.itemId(),
+                () -> marketApi.getMarketAPI().commandBuy(player, shopFrame.market(), shopFrame.itemId(), 1));
+    }
+
+    @Override
+    public void onFrameCreate(@NotNull Player owner, @NotNull ItemFrame frame, int itemId) {
+        if (frames.containsKey(frame.getUniqueId())) {
+            HMI18n.send(owner, "command.frame.occupied");
+            return;
+        }
+        if (!frame.getItem().getType().isAir()) {
+            HMI18n.send(owner, "command.frame.not-empty");
+            return;
+        }
+        var ownerId = owner.getUniqueId();
+        var location = frame.getLocation();
+        var shopFrame = new ShopFrameData(frame.getUniqueId(), frame.getWorld().getName(),
+                location.getBlockX(), location.getBlockY(), location.getBlockZ(), ownerId, ownerId, itemId);
+        // only listings of the owner's own sign shop can be shown
+        marketApi.getDatabaseManager().createShopFrameForOwnListing(shopFrame, marketApi.getConfig().limitFrames)
+                .thenAccept(result -> {
+                    if (result.isEmpty()) {
+                        HMI18n.sendSync(ownerId, "command.database-error");
+                    } else if (result.get() < 0) {
+                        HMI18n.sendSync(ownerId, "command.frame.not-your-item", itemId);
+                    } else if (result.get() > 0) {
+                        register(shopFrame);
+                        TaskUtils.async.runSyncMethod(() -> {
+                            frame.setFixed(true);
+                            frame.setInvulnerable(true);
+                        });
+                        refreshListing(itemId);
+                        HMI18n.sendSync(ownerId, "command.frame.created");
+                    } else {
+                        HMI18n.sendSync(ownerId, "command.frame.create-failed");
+                    }
+                })
+                .exceptionally(throwable -> {
+                    HMI18n.sendSync(ownerId, "command.database-error");
+                    HMLogUtils.warning("shop-frame.create-failed", "frame", shopFrame.frameId(), "listing", itemId,
+                            "owner", ownerId, "error", throwable);
+                    return null;
+                });
+    }
+
+    @Override
+    public void onFrameRemove(@NotNull Player player, @NotNull ItemFrame frame) {
+        var shopFrame = frames.get(frame.getUniqueId());
+        if (shopFrame == null) {
+            HMI18n.send(player, "command.frame.not-found");
+            return;
+        }
+        if (!shopFrame.owner().equals(player.getUniqueId()) && !player.isOp()) {
+            HMI18n.send(player, "command.shop.not-owner");
+            return;
+        }
+        var playerId = player.getUniqueId();
+        marketApi.getDatabaseManager().deleteShopFrame(shopFrame.frameId()).thenAccept(result -> {
+            if (result.isEmpty() || result.get() <= 0) {
+                HMI18n.sendSync(playerId, "command.database-error");
+                return;
+            }
+            unregister(shopFrame.frameId());
+            TaskUtils.async.runSyncMethod(() -> {
+                // the shown item is only a copy of the listing
+                frame.setItem(null, false);
+                frame.setFixed(false);
+                frame.setInvulnerable(false);
+            });
+            HMI18n.sendSync(playerId, "command.frame.removed");
+            HMLogUtils.info("shop-frame.remove", "frame", shopFrame.frameId(), "listing", shopFrame.itemId(), "player", playerId);
+        });
+    }
+
+    @Override
+    public boolean isFrameProtected(@NotNull Entity entity) {
+        return frames.containsKey(entity.getUniqueId());
+    }
+
+    @Override
+    public Optional<ShopFrameData> getFrameData(@NotNull UUID frameId) {
+        return Optional.ofNullable(frames.get(frameId));
+    }
+
+    @Override
+    public void onWorldLoad(@NotNull World world) {
+        var worldName = world.getName();
+        if (!loadedWorlds.add(worldName)) return;
+        marketApi.getDatabaseManager().getShopFramesByWorld(worldName).thenAccept(result -> {
+            if (!loadedWorlds.contains(worldName)) return; // unloaded while loading
+            if (result.isEmpty()) {
+                HMLogUtils.error("shop-frame.world-load-failed", "world", worldName);
+                return;
+            }
+            result.get().forEach(this::register);
+            result.get().stream().mapToInt(ShopFrameData::itemId).distinct().forEach(this::refreshListing);
+        });
+    }
+
+    @Override
+    public void onWorldUnload(@NotNull World world) {
+        var worldName = world.getName();
+        if (!loadedWorlds.remove(worldName)) return;
+        frames.values().stream()
+                .filter(frame -> frame.world().equals(worldName))
+                .map(ShopFrameData::frameId)
+                .toList()
+                .forEach(this::unregister);
+        framesByChunk.remove(worldName);
+    }
+
+    @Override
+    public void onEntitiesLoad(@NotNull Chunk chunk) {
+        var chunks = framesByChunk.get(chunk.getWorld().getName());
+        if (chunks == null) return;
+        List<UUID> frameIds;
+        synchronized (chunks) {
+            var chunkFrames = chunks.get(BlockPosUtils.chunkKey(chunk.getX(), chunk.getZ()));
+            if (chunkFrames == null) return;
+            frameIds = List.copyOf(chunkFrames);
+        }
+        frameIds.stream()
+                .map(frames::get)
+                .filter(Objects::nonNull)
+                .mapToInt(ShopFrameData::itemId)
+                .distinct()
+                .forEach(this::refreshListing);
+    }
+}
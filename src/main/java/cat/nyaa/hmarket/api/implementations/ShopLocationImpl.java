@@ -7,29 +7,44 @@ import cat.nyaa.hmarket.api.IMarketShopLocation;
 import cat.nyaa.hmarket.api.data.BlockLocationData;
 import cat.nyaa.hmarket.db.data.ShopLocationData;
 import cat.nyaa.hmarket.utils.*;
-import com.google.common.collect.Lists;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import org.bukkit.Bukkit;
+import org.bukkit.Chunk;
+import org.bukkit.Tag;
+import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.block.BlockFace;
 import org.bukkit.block.Sign;
+import org.bukkit.block.data.BlockData;
 import org.bukkit.block.data.type.WallHangingSign;
 import org.bukkit.entity.Player;
 import org.bukkit.event.player.PlayerInteractEvent;
-import org.bukkit.metadata.FixedMetadataValue;
-import org.bukkit.metadata.MetadataValue;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class ShopLocationImpl implements IMarketShopLocation {
     private final static String SIGN_LINE0 = "[SHOP]";
     private final HMarketAPI marketApi;
+    private static final BlockFace[] NEARBY_DIRECTIONS = new BlockFace[]{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN};
     private final SimpleKVCache<BlockLocationData, ShopLocationData> cache;
+    private final ShopSpatialIndex index = new ShopSpatialIndex();
+    private final SignCreateLockTable createLocks = new SignCreateLockTable();
+    // regions are 32x32 chunks, like region files
+    private static final int REGION_SHIFT = 5;
+    private final boolean loadByRegion;
+    private final Map<String, WorldLoadState> worldStates = new ConcurrentHashMap<>();
+    private final @Nullable ShopSignDisplay signDisplay;
 
     public ShopLocationImpl(HMarketAPI marketApi) {
         this.marketApi = marketApi;
+        this.loadByRegion = marketApi.getConfig().signLoadByRegion;
+        this.signDisplay = marketApi.getConfig().signDisplayEnabled
+                ? new ShopSignDisplay(marketApi.getMarketAPI(), marketApi.getConfig().signDisplayMaxUpdatesPerTick)
+                : null;
         this.cache = new SimpleKVCache<>(new SimpleKVCache.simpleDataProvider<>() {
             @Override
             public CompletableFuture<Optional<ShopLocationData>> get(@NotNull BlockLocationData key) {
@@ -49,7 +64,7 @@ public class ShopLocationImpl implements IMarketShopLocation {
                     for (ShopLocationData shopLocation : shopLocationData.get()) {
                         var key = new BlockLocationData(shopLocation.blockX(), shopLocation.blockY(), shopLocation.blockZ(), shopLocation.world());
                         if (result.containsKey(key)) {
-                            HMLogUtils.logError("More than one shop location found at " + key);
+                            HMLogUtils.error("shop-location.duplicate", "location", key);
                             return Optional.empty();
                         } else {
                             result.put(key, shopLocation);
@@ -88,12 +103,148 @@ public class ShopLocationImpl implements IMarketShopLocation {
                             return result.get() > 0;
                         });
             }
+        }, SimpleKVCache.Options.defaults().preload(false));
+        // the spatial index and the sign display follow every write to the cache
+        cache.addListener(new SimpleKVCache.ChangeListener<>() {
+            @Override
+            public void onPut(BlockLocationData key, ShopLocationData value) {
+                index.add(value);
+                if (signDisplay != null) signDisplay.add(value);
+            }
+
+            @Override
+            public void onRemove(BlockLocationData key, ShopLocationData value) {
+                index.remove(key.world(), key.x(), key.y(), key.z());
+                if (signDisplay != null) signDisplay.remove(value);
+            }
+        });
+        // shop locations are loaded per world (or per region) as worlds and chunks load
+        Bukkit.getWorlds().forEach(this::onWorldLoad);
+    }
+
+    private static long regionKey(int chunkX, int chunkZ) {
+        return BlockPosUtils.chunkKey(chunkX >> REGION_SHIFT, chunkZ >> REGION_SHIFT);
+    }
+
+    @Override
+    public boolean isReady(@NotNull World world, int blockX, int blockZ) {
+        return isReady(world.getName(), blockX, blockZ);
+    }
+
+    private boolean isReady(@NotNull String world, int blockX, int blockZ) {
+        var state = worldStates.get(world);
+        if (state == null) return false;
+        if (!loadByRegion) return state.loaded;
+        return state.isRegionLoaded(regionKey(blockX >> 4, blockZ >> 4));
+    }
+
+    private boolean isAllReady(@NotNull String world, @NotNull Collection<Block> blocks) {
+        var state = worldStates.get(world);
+        if (state == null) return false;
+        if (!loadByRegion) return state.loaded;
+        long lastRegion = Long.MIN_VALUE;
+        for (Block block : blocks) {
+            var region = regionKey(block.getX() >> 4, block.getZ() >> 4);
+            if (region == lastRegion) continue;
+            if (!state.isRegionLoaded(region)) return false;
+            lastRegion = region;
+        }
+        return true;
+    }
+
+    @Override
+    public void onWorldLoad(@NotNull World world) {
+        var worldName = world.getName();
+        if (loadByRegion) {
+            var state = worldStates.computeIfAbsent(worldName, k -> new WorldLoadState());
+            for (Chunk chunk : world.getLoadedChunks()) {
+                loadRegion(worldName, state, chunk.getX(), chunk.getZ());
+            }
+            return;
+        }
+        var state = new WorldLoadState();
+        if (worldStates.putIfAbsent(worldName, state) != null) return;
+        var start = System.nanoTime();
+        marketApi.getDatabaseManager().getShopLocationsByWorld(worldName).thenAccept(result -> {
+            if (worldStates.get(worldName) != state) return; // unloaded while loading
+            if (result.isEmpty()) {
+                HMLogUtils.error("shop-location.world-load-failed", "world", worldName, "note", "shop signs there stay protected");
+                return;
+            }
+            addLoaded(result.get());
+            state.warmupMillis = (System.nanoTime() - start) / 1_000_000;
+            state.loaded = true;
+            HMLogUtils.info("shop-location.world-loaded", "world", worldName, "locations", result.get().size(),
+                    "ms", state.warmupMillis);
+        });
+    }
+
+    @Override
+    public @NotNull Map<String, Long> getWorldWarmupMillis() {
+        Map<String, Long> result = new TreeMap<>();
+        worldStates.forEach((world, state) -> {
+            if (state.loaded) result.put(world, state.warmupMillis);
         });
+        return result;
+    }
+
+    @Override
+    public void onChunkLoad(@NotNull Chunk chunk) {
+        if (signDisplay != null) {
+            // signs of the chunk were skipped while it was unloaded
+            index.getShopsInChunk(chunk.getWorld(), BlockPosUtils.chunkKey(chunk.getX(), chunk.getZ()))
+                    .forEach(shopLocation -> signDisplay.markDirty(shopLocation.market()));
+        }
+        if (!loadByRegion) return;
+        var worldName = chunk.getWorld().getName();
+        loadRegion(worldName, worldStates.computeIfAbsent(worldName, k -> new WorldLoadState()), chunk.getX(), chunk.getZ());
+    }
+
+    private void loadRegion(@NotNull String worldName, @NotNull WorldLoadState state, int chunkX, int chunkZ) {
+        var region = regionKey(chunkX, chunkZ);
+        if (!state.tryStartRegion(region)) return;
+        var minChunkX = (chunkX >> REGION_SHIFT) << REGION_SHIFT;
+        var minChunkZ = (chunkZ >> REGION_SHIFT) << REGION_SHIFT;
+        var regionSize = 1 << REGION_SHIFT;
+        marketApi.getDatabaseManager()
+                .getShopLocationsInChunkRange(worldName, minChunkX, minChunkX + regionSize - 1, minChunkZ, minChunkZ + regionSize - 1)
+                .thenAccept(result -> {
+                    if (worldStates.get(worldName) != state) return; // unloaded while loading
+                    if (result.isEmpty()) {
+                        // retried when the next chunk of the region loads
+                        state.failRegion(region);
+                        HMLogUtils.warning("shop-location.region-load-failed", "world", worldName,
+                                "regionX", chunkX >> REGION_SHIFT, "regionZ", chunkZ >> REGION_SHIFT);
+                        return;
+                    }
+                    addLoaded(result.get());
+                    state.finishRegion(region);
+                });
+    }
+
+    private void addLoaded(@NotNull List<ShopLocationData> shopLocations) {
+        var loaded = new HashMap<BlockLocationData, ShopLocationData>();
+        for (ShopLocationData shopLocation : shopLocations) {
+            loaded.put(shopLocation.getBlockLocationData(), shopLocation);
+        }
+        cache.putAllLoaded(loaded);
     }
 
+    @Override
+    public void onWorldUnload(@NotNull World world) {
+        var worldName = world.getName();
+        if (worldStates.remove(worldName) == null) return;
+        cache.evictIf(key -> key.world().equals(worldName));
+    }
+
+    @Override
+    public void flushSignDisplays() {
+        if (signDisplay != null) signDisplay.flush();
+    }
 
     @Override
     public void onSignClick(@NotNull BlockLocationData blockLocationData, Player player, @NotNull PlayerInteractEvent event) {
+        if (!isReady(blockLocationData.world(), blockLocationData.x(), blockLocationData.z())) return;
         if (!cache.containsKey(blockLocationData)) return;
         if (!(event.getClickedBlock().getState() instanceof Sign sign))
             return;
@@ -103,7 +254,7 @@ public class ShopLocationImpl implements IMarketShopLocation {
         }
         var shopLocationData = cache.get(blockLocationData);
         event.setCancelled(true);
-        var playerName = Bukkit.getOfflinePlayer(shopLocationData.market()).getName();
+        var playerName = PlayerNameUtils.getPlayerNameById(shopLocationData.market());
         Hmarket.getInstance().getViewServer().createViewForPlayer(player, shopLocationData.market(),
                 HMI18n.format("info.ui.title.shop.user", playerName));
         Hmarket.getInstance().getViewServer().openViewForPlayer(player);
@@ -113,6 +264,10 @@ public class ShopLocationImpl implements IMarketShopLocation {
     public void onSignChange(@NotNull BlockLocationData fromLocation, @NotNull Player owner, @NotNull String[] lines, @NotNull Block block) {
         if (lines.length < 3) return;
         if (!lines[0].equalsIgnoreCase(SIGN_LINE0)) return;
+        if (!isReady(fromLocation.world(), fromLocation.x(), fromLocation.z())) {
+            HMI18n.send(owner, "info.sign.loading");
+            return;
+        }
 
         if (cache.containsKey(fromLocation)) {
             // it's normal in mc 1.20
@@ -121,10 +276,7 @@ public class ShopLocationImpl implements IMarketShopLocation {
             return;
         }
 
-        block.getState().setMetadata(
-                KeyUtils.SIGN_CREATE_LOCK,
-                new FixedMetadataValue(marketApi.getDatabaseManager().getPlugin(), TimeUtils.getUnixTimeStampNow())
-        );
+        createLocks.lock(fromLocation.world(), fromLocation.x(), fromLocation.y(), fromLocation.z(), marketApi.getConfig().maxSignCreateLockTime);
         var ownerId = owner.getUniqueId();
         var limitSigns = marketApi.getConfig().limitSigns;
 
@@ -136,12 +288,15 @@ public class ShopLocationImpl implements IMarketShopLocation {
                                 HMI18n.sendSync(ownerId, "info.sign.database_error");
                             } else if (result1.get() > 0) {
                                 HMI18n.sendSync(ownerId, "info.sign.created");
-                                cache.getAndUpdateCache(fromLocation);
-                                Bukkit.getScheduler().runTask(Hmarket.getInstance(), () -> {
+                                TaskUtils.async.runSyncMethod(() -> {
                                     var sign = ((Sign) block.getState());
                                     sign.setWaxed(true);
                                     sign.update();
                                 });
+                                // the row is exactly what was inserted, cache it without reading it back, and before
+                                // the lock is released
+                                cache.putAllLoaded(Map.of(fromLocation, new ShopLocationData(fromLocation.x(), fromLocation.y(),
+                                        fromLocation.z(), fromLocation.world(), ShopLocationData.ShopType.SIGN, ownerId, ownerId)));
                             } else {
                                 HMI18n.sendSync(ownerId, "info.sign.create_failed");
                             }
@@ -151,69 +306,50 @@ public class ShopLocationImpl implements IMarketShopLocation {
                         (result1, throwable) -> {
                             if (throwable != null) {
                                 HMI18n.sendSync(ownerId, "info.sign.database_error");
-                                HMLogUtils.logWarning("Failed to create shop at " + fromLocation);
-                                throwable.printStackTrace();
+                                HMLogUtils.warning("shop-location.create-failed", "location", fromLocation, "owner", ownerId,
+                                        "error", throwable);
                             }
-                            TaskUtils.async.runSyncMethod(() -> {
-                                if (block.getState().hasMetadata(KeyUtils.SIGN_CREATE_LOCK)) {
-                                    block.getState().removeMetadata(KeyUtils.SIGN_CREATE_LOCK, marketApi.getDatabaseManager().getPlugin());
-                                }
-                            });
+                            createLocks.unlock(fromLocation.world(), fromLocation.x(), fromLocation.y(), fromLocation.z());
                         }
                 );
     }
 
+    private boolean isCreateLocked(@NotNull Block block) {
+        return createLocks.isLocked(block.getWorld().getName(), block.getX(), block.getY(), block.getZ());
+    }
+
     @Override
     public boolean isBlockProtected(@NotNull Block block, @Nullable Player player) {
-        if (block.getState().hasMetadata(KeyUtils.SIGN_CREATE_LOCK)) {
-            for (MetadataValue metadata : block.getState().getMetadata(KeyUtils.SIGN_CREATE_LOCK)) {
-                if (metadata.getOwningPlugin() == null) continue;
-                if (!metadata.getOwningPlugin().getName().equals(marketApi.getDatabaseManager().getPlugin().getName()))
-                    continue;
-                var time = metadata.asLong();
-                if (time <= 0) continue;
-                var passed = TimeUtils.getUnixTimeStampNow() - time;
-                if (passed <= marketApi.getConfig().maxSignCreateLockTime && passed >= 0) {
-                    return true;
-                }
+        if (!createLocks.isEmpty() && isCreateLocked(block)) return true;
+        var world = block.getWorld();
+        int x = block.getX(), y = block.getY(), z = block.getZ();
+        if (!isReady(world.getName(), x, z)) {
+            if (!isSignOrSignBase(block)) return false;
+            if (player != null) {
+                HMI18n.send(player, "info.sign.loading");
             }
+            return true;
         }
-        List<Block> nearby = Lists.newArrayList();
-        final BlockFace[] directions = new BlockFace[]{BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN};
-        for (BlockFace direction : directions) {
-            nearby.add(block.getRelative(direction));
-        }
-        nearby.removeIf(b ->
-                {
-                    if (b == null) return true;
-                    return b.isEmpty();
-                }
-        );
-        for (Block b : nearby) {
-            if (b.getState() instanceof Sign signState) {
-                if (signState.getBlockData() instanceof WallHangingSign) {
-                    return false; // skip check for WallHangingSign
-                }
-                var baseBlock = getSignBaseBlock(signState);
-                if (baseBlock.getLocation().equals(block.getLocation())) {
-                    var signLocation = BlockLocationData.fromLocation(b.getLocation());
-                    if (cache.containsKey(signLocation)) {
-                        if (player != null) {
-                            HMI18n.send(player, "info.sign.nearby-protected");
-                        }
-                        return true;
-                    }
+        // neither this block nor any of its neighbours can be a shop sign
+        if (!index.hasShopsNear(world, x, z)) return false;
+        for (BlockFace direction : NEARBY_DIRECTIONS) {
+            if (index.get(world, x + direction.getModX(), y + direction.getModY(), z + direction.getModZ()) == null)
+                continue;
+            // the neighbour sign hangs on this block if its base is in the opposite direction
+            if (getSignBaseFace(block.getRelative(direction).getBlockData()) == direction.getOppositeFace()) {
+                if (player != null) {
+                    HMI18n.send(player, "info.sign.nearby-protected");
                 }
+                return true;
             }
         }
 
-        var fromLocation = BlockLocationData.fromLocation(block.getLocation());
-        if (!cache.containsKey(fromLocation)) return false;
+        var shop = index.get(world, x, y, z);
+        if (shop == null) return false;
         if (player == null) {
             return true;
         }
         if (player.isOp()) return false;
-        var shop = cache.get(fromLocation);
         var playerId = player.getUniqueId();
         if (!shop.owner().equals(playerId)) {
             HMI18n.send(player, "info.sign.not-owner");
@@ -223,37 +359,118 @@ public class ShopLocationImpl implements IMarketShopLocation {
 
     }
 
-    private Block getSignBaseBlock(Sign block) {
-        BlockFace face;
-        if (block.getBlockData() instanceof org.bukkit.block.data.type.WallSign wallSign) {
-            face = wallSign.getFacing();
-        } else if (block.getBlockData() instanceof org.bukkit.block.data.type.HangingSign hangingSign) {
-            face = BlockFace.DOWN;
-        } else if (block.getBlockData() instanceof org.bukkit.block.data.type.Sign) {
-            face = BlockFace.UP;
-        } else {
-//            @SuppressWarnings("deprecation") final org.bukkit.material.Sign signMat = (org.bukkit.material.Sign) block.getData();
-//            if (!signMat.isWallSign()) {
-//                face = BlockFace.UP;
-//            } else {
-//                face = signMat.getFacing();
-//            }
-            throw new RuntimeException("Not detectable sign type.");
+    @Override
+    public void removeProtectedBlocks(@NotNull Collection<Block> blocks) {
+        if (blocks.isEmpty()) return;
+        var world = blocks.iterator().next().getWorld();
+        var worldName = world.getName();
+        var allReady = isAllReady(worldName, blocks);
+        var protectedPositions = collectProtectedPositions(world, blocks);
+        var checkLocks = !createLocks.isEmpty();
+        if (allReady && protectedPositions == null && !checkLocks) return;
+        blocks.removeIf(block -> isEnvironmentProtected(block, world, worldName, allReady, protectedPositions, checkLocks));
+    }
+
+    @Override
+    public boolean isAnyBlockProtected(@NotNull Collection<Block> blocks) {
+        if (blocks.isEmpty()) return false;
+        var world = blocks.iterator().next().getWorld();
+        var worldName = world.getName();
+        var allReady = isAllReady(worldName, blocks);
+        var protectedPositions = collectProtectedPositions(world, blocks);
+        var checkLocks = !createLocks.isEmpty();
+        if (allReady && protectedPositions == null && !checkLocks) return false;
+        for (Block block : blocks) {
+            if (isEnvironmentProtected(block, world, worldName, allReady, protectedPositions, checkLocks)) return true;
         }
-        return block.getBlock().getRelative(face.getOppositeFace());
+        return false;
+    }
+
+    private boolean isEnvironmentProtected(@NotNull Block block, @NotNull World world, @NotNull String worldName, boolean allReady,
+                                           @Nullable LongOpenHashSet protectedPositions, boolean checkLocks) {
+        if (!block.getWorld().equals(world)) return isBlockProtected(block, null);
+        if (checkLocks && isCreateLocked(block)) return true;
+        if (!allReady && !isReady(worldName, block.getX(), block.getZ())) return isSignOrSignBase(block);
+        return protectedPositions != null && protectedPositions.contains(BlockPosUtils.packBlockPos(block.getX(), block.getY(), block.getZ()));
+    }
+
+    /**
+     * collects the positions of the shop signs and their base blocks in the chunks touched by the blocks
+     *
+     * @return packed positions, or null if none of the blocks is near a shop
+     */
+    private @Nullable LongOpenHashSet collectProtectedPositions(@NotNull World world, @NotNull Collection<Block> blocks) {
+        LongOpenHashSet chunks = null;
+        for (Block block : blocks) {
+            int x = block.getX(), z = block.getZ();
+            if (!index.hasShopsNear(world, x, z)) continue;
+            if (chunks == null) chunks = new LongOpenHashSet();
+            int chunkX = x >> 4, chunkZ = z >> 4;
+            chunks.add(BlockPosUtils.chunkKey(chunkX, chunkZ));
+            // a sign in a neighbouring chunk may hang on a border block
+            if ((x & 15) == 0) chunks.add(BlockPosUtils.chunkKey(chunkX - 1, chunkZ));
+            if ((x & 15) == 15) chunks.add(BlockPosUtils.chunkKey(chunkX + 1, chunkZ));
+            if ((z & 15) == 0) chunks.add(BlockPosUtils.chunkKey(chunkX, chunkZ - 1));
+            if ((z & 15) == 15) chunks.add(BlockPosUtils.chunkKey(chunkX, chunkZ + 1));
+        }
+        if (chunks == null) return null;
+        var protectedPositions = new LongOpenHashSet();
+        var iterator = chunks.iterator();
+        while (iterator.hasNext()) {
+            for (ShopLocationData shop : index.getShopsInChunk(world, iterator.nextLong())) {
+                int x = shop.blockX(), y = shop.blockY(), z = shop.blockZ();
+                protectedPositions.add(BlockPosUtils.packBlockPos(x, y, z));
+                // never load a chunk for this, a sign in an unloaded chunk does not pop off anyway
+                if (!world.isChunkLoaded(x >> 4, z >> 4)) continue;
+                var face = getSignBaseFace(world.getBlockData(x, y, z));
+                if (face == null) continue;
+                protectedPositions.add(BlockPosUtils.packBlockPos(x + face.getModX(), y + face.getModY(), z + face.getModZ()));
+            }
+        }
+        return protectedPositions;
+    }
+
+    /**
+     * conservative check used before the shop locations are loaded: any sign, and any block a sign hangs on
+     */
+    private static boolean isSignOrSignBase(@NotNull Block block) {
+        if (Tag.ALL_SIGNS.isTagged(block.getType())) return true;
+        for (BlockFace direction : NEARBY_DIRECTIONS) {
+            var relative = block.getRelative(direction);
+            if (!Tag.ALL_SIGNS.isTagged(relative.getType())) continue;
+            if (getSignBaseFace(relative.getBlockData()) == direction.getOppositeFace()) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return the direction from the sign to the block it is attached to, or null if it is not a sign or a wall hanging sign
+     */
+    private static @Nullable BlockFace getSignBaseFace(@NotNull BlockData blockData) {
+        if (blockData instanceof WallHangingSign) {
+            return null; // skip check for WallHangingSign
+        } else if (blockData instanceof org.bukkit.block.data.type.WallSign wallSign) {
+            return wallSign.getFacing().getOppositeFace();
+        } else if (blockData instanceof org.bukkit.block.data.type.HangingSign) {
+            return BlockFace.UP;
+        } else if (blockData instanceof org.bukkit.block.data.type.Sign) {
+            return BlockFace.DOWN;
+        }
+        return null;
     }
 
     @Override
     public void onSignDestroy(@NotNull BlockLocationData fromLocation, @NotNull UUID playerId) {
+        if (!isReady(fromLocation.world(), fromLocation.x(), fromLocation.z())) return;
         if (!cache.containsKey(fromLocation)) return;
         cache.remove(fromLocation).thenAccept(
                 result -> {
                     if (result) {
                         HMI18n.sendSync(playerId, "info.sign.destroyed");
-                        HMLogUtils.logInfo("Shop sign at " + fromLocation + " was destroyed by " + playerId);
+                        HMLogUtils.info("shop-location.destroy", "location", fromLocation, "player", playerId);
                     } else {
                         HMI18n.sendSync(playerId, "info.sign.destroy_failed");
-                        HMLogUtils.logWarning("Failed to destroy shop at " + fromLocation + " for player " + playerId);
+                        HMLogUtils.warning("shop-location.destroy-failed", "location", fromLocation, "player", playerId);
                     }
                 }
         );
@@ -261,6 +478,7 @@ public class ShopLocationImpl implements IMarketShopLocation {
 
     @Override
     public Optional<ShopLocationData> getLocationData(BlockLocationData blockLocationData) {
+        if (!isReady(blockLocationData.world(), blockLocationData.x(), blockLocationData.z())) return Optional.empty();
         if (cache.containsKey(blockLocationData)) {
             return Optional.ofNullable(cache.get(blockLocationData));
         } else {
@@ -277,4 +495,31 @@ public class ShopLocationImpl implements IMarketShopLocation {
     public CompletableFuture<Optional<List<ShopLocationData>>> getLocationDataByMarket(UUID marketId) {
         return marketApi.getDatabaseManager().getShopLocationByMarket(marketId);
     }
+
+    private static class WorldLoadState {
+        // world mode only
+        private volatile boolean loaded = false;
+        private volatile long warmupMillis = -1;
+        // region mode only
+        private final LongOpenHashSet loadedRegions = new LongOpenHashSet();
+        private final LongOpenHashSet loadingRegions = new LongOpenHashSet();
+
+        private synchronized boolean isRegionLoaded(long region) {
+            return loadedRegions.contains(region);
+        }
+
+        private synchronized boolean tryStartRegion(long region) {
+            if (loadedRegions.contains(region)) return false;
+            return loadingRegions.add(region);
+        }
+
+        private synchronized void finishRegion(long region) {
+            loadingRegions.remove(region);
+            loadedRegions.add(region);
+        }
+
+        private synchronized void failRegion(long region) {
+            loadingRegions.remove(region);
+        }
+    }
 }
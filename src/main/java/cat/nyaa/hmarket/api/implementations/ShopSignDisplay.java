@@ -0,0 +1,118 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.api.IMarketAPI;
+import cat.nyaa.hmarket.api.data.BlockLocationData;
+import cat.nyaa.hmarket.api.data.MarketListingSummary;
+import cat.nyaa.hmarket.db.data.ShopLocationData;
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.block.Sign;
+import org.bukkit.block.sign.Side;
+import org.bukkit.block.sign.SignSide;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Writes the listing count and cheapest price of a market on its shop signs.
+ * <p>
+ * Changes are coalesced per market and applied on the main thread, at most {@code maxUpdatesPerTick} signs per
+ * tick. Signs in unloaded chunks are skipped, they are queued again when their chunk loads. The two display lines
+ * replace whatever the owner wrote there, which is why the display is off unless enabled in the config.
+ */
+public class ShopSignDisplay {
+    // line 0 holds the shop marker and line 1 is left to the owner
+    private static final int STOCK_LINE = 2;
+    private static final int PRICE_LINE = 3;
+    private final IMarketAPI marketAPI;
+    private final int maxUpdatesPerTick;
+    private final Map<UUID, Set<BlockLocationData>> signsByMarket = new ConcurrentHashMap<>();
+    private final Set<UUID> dirtyMarkets = new LinkedHashSet<>();
+
+    public ShopSignDisplay(@NotNull IMarketAPI marketAPI, int maxUpdatesPerTick) {
+        this.marketAPI = marketAPI;
+        this.maxUpdatesPerTick = Math.max(1, maxUpdatesPerTick);
+        marketAPI.addListingListener((marketId, itemId) -> markDirty(marketId));
+    }
+
+    public void add(@NotNull ShopLocationData shopLocation) {
+        if (shopLocation.type() != ShopLocationData.ShopType.SIGN) return;
+        signsByMarket.computeIfAbsent(shopLocation.market(), k -> ConcurrentHashMap.newKeySet())
+                .add(shopLocation.getBlockLocationData());
+        markDirty(shopLocation.market());
+    }
+
+    public void remove(@NotNull ShopLocationData shopLocation) {
+        var signs = signsByMarket.get(shopLocation.market());
+        if (signs == null) return;
+        signs.remove(shopLocation.getBlockLocationData());
+        if (signs.isEmpty()) signsByMarket.remove(shopLocation.market(), signs);
+    }
+
+    public void markDirty(@NotNull UUID marketId) {
+        if (!signsByMarket.containsKey(marketId)) return;
+        synchronized (dirtyMarkets) {
+            dirtyMarkets.add(marketId);
+        }
+    }
+
+    /**
+     * called once per tick on the main thread
+     */
+    public void flush() {
+        var budget = maxUpdatesPerTick;
+        while (budget > 0) {
+            UUID marketId;
+            synchronized (dirtyMarkets) {
+                var iterator = dirtyMarkets.iterator();
+                if (!iterator.hasNext()) return;
+                marketId = iterator.next();
+                iterator.remove();
+            }
+            var signs = signsByMarket.get(marketId);
+            if (signs == null) continue;
+            var summary = marketAPI.getListingSummary(marketId);
+            if (!summary.isDone()) {
+                // first time this market is shown, draw it once its listings are loaded
+                summary.thenRun(() -> markDirty(marketId));
+                continue;
+            }
+            // a failed load is drawn with the next change of the market
+            if (summary.isCompletedExceptionally()) continue;
+            var stockLine = formatStock(summary.join());
+            var priceLine = formatPrice(summary.join());
+            for (BlockLocationData location : signs) {
+                if (budget <= 0) {
+                    // the rest of this market's signs go out next tick, unchanged signs are skipped cheaply then
+                    markDirty(marketId);
+                    return;
+                }
+                if (updateSign(location, stockLine, priceLine)) budget--;
+            }
+        }
+    }
+
+    private static boolean updateSign(@NotNull BlockLocationData location, @NotNull Component stockLine, @NotNull Component priceLine) {
+        var world = Bukkit.getWorld(location.world());
+        if (world == null || !world.isChunkLoaded(location.x() >> 4, location.z() >> 4)) return false;
+        if (!(world.getBlockAt(location.x(), location.y(), location.z()).getState() instanceof Sign sign)) return false;
+        SignSide side = sign.getSide(Side.FRONT);
+        if (stockLine.equals(side.line(STOCK_LINE)) && priceLine.equals(side.line(PRICE_LINE))) return false;
+        side.line(STOCK_LINE, stockLine);
+        side.line(PRICE_LINE, priceLine);
+        sign.update(false, false);
+        return true;
+    }
+
+    private static @NotNull Component formatStock(@NotNull MarketListingSummary summary) {
+        if (summary.isEmpty()) return HMI18n.format("info.sign.display.empty");
+        return HMI18n.format("info.sign.display.stock", summary.listings());
+    }
+
+    private static @NotNull Component formatPrice(@NotNull MarketListingSummary summary) {
+        if (summary.isEmpty()) return Component.empty();
+        return HMI18n.format("info.sign.display.price", summary.minPrice());
+    }
+}
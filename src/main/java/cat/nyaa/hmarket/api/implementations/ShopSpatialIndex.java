@@ -0,0 +1,119 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.db.data.ShopLocationData;
+import cat.nyaa.hmarket.utils.BlockPosUtils;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.bukkit.World;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * world → chunk key → packed block position index of shop locations.
+ * <p>
+ * Lookups go through the world's UUID and primitive long keys, so checking a block allocates nothing and a
+ * chunk without shops is rejected with two hash lookups.
+ */
+public class ShopSpatialIndex {
+    private final Map<String, WorldIndex> worldsByName = new ConcurrentHashMap<>();
+    private final Map<UUID, WorldIndex> worldsById = new ConcurrentHashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private @NotNull WorldIndex getOrCreate(@NotNull String worldName) {
+        return worldsByName.computeIfAbsent(worldName, k -> new WorldIndex());
+    }
+
+    private @NotNull WorldIndex getWorldIndex(@NotNull World world) {
+        var worldIndex = worldsById.get(world.getUID());
+        if (worldIndex != null) return worldIndex;
+        // rows only know the world name, link it to the id the first time the world is looked up
+        return worldsById.computeIfAbsent(world.getUID(), k -> getOrCreate(world.getName()));
+    }
+
+    public void add(@NotNull ShopLocationData shopLocation) {
+        var worldIndex = getOrCreate(shopLocation.world());
+        lock.writeLock().lock();
+        try {
+            worldIndex.chunks
+                    .computeIfAbsent(BlockPosUtils.chunkKeyOfBlock(shopLocation.blockX(), shopLocation.blockZ()), k -> new Long2ObjectOpenHashMap<>())
+                    .put(BlockPosUtils.packBlockPos(shopLocation.blockX(), shopLocation.blockY(), shopLocation.blockZ()), shopLocation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(@NotNull String world, int x, int y, int z) {
+        var worldIndex = worldsByName.get(world);
+        if (worldIndex == null) return;
+        lock.writeLock().lock();
+        try {
+            var chunkKey = BlockPosUtils.chunkKeyOfBlock(x, z);
+            var chunk = worldIndex.chunks.get(chunkKey);
+            if (chunk == null) return;
+            chunk.remove(BlockPosUtils.packBlockPos(x, y, z));
+            if (chunk.isEmpty()) {
+                worldIndex.chunks.remove(chunkKey);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public @Nullable ShopLocationData get(@NotNull World world, int x, int y, int z) {
+        var worldIndex = getWorldIndex(world);
+        lock.readLock().lock();
+        try {
+            var chunk = worldIndex.chunks.get(BlockPosUtils.chunkKeyOfBlock(x, z));
+            if (chunk == null) return null;
+            return chunk.get(BlockPosUtils.packBlockPos(x, y, z));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the shops in the chunk, empty if there is none
+     */
+    public @NotNull List<ShopLocationData> getShopsInChunk(@NotNull World world, long chunkKey) {
+        var worldIndex = getWorldIndex(world);
+        lock.readLock().lock();
+        try {
+            var chunk = worldIndex.chunks.get(chunkKey);
+            if (chunk == null) return List.of();
+            return new ArrayList<>(chunk.values());
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the chunk of the block, or a chunk one of its horizontal neighbours is in, contains shops
+     */
+    public boolean hasShopsNear(@NotNull World world, int x, int z) {
+        var worldIndex = getWorldIndex(world);
+        lock.readLock().lock();
+        try {
+            if (worldIndex.chunks.isEmpty()) return false;
+            int chunkX = x >> 4, chunkZ = z >> 4;
+            if (worldIndex.chunks.containsKey(BlockPosUtils.chunkKey(chunkX, chunkZ))) return true;
+            int localX = x & 15, localZ = z & 15;
+            if (localX == 0 && worldIndex.chunks.containsKey(BlockPosUtils.chunkKey(chunkX - 1, chunkZ))) return true;
+            if (localX == 15 && worldIndex.chunks.containsKey(BlockPosUtils.chunkKey(chunkX + 1, chunkZ))) return true;
+            if (localZ == 0 && worldIndex.chunks.containsKey(BlockPosUtils.chunkKey(chunkX, chunkZ - 1))) return true;
+            return localZ == 15 && worldIndex.chunks.containsKey(BlockPosUtils.chunkKey(chunkX, chunkZ + 1));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static class WorldIndex {
+        private final Long2ObjectOpenHashMap<Long2ObjectOpenHashMap<ShopLocationData>> chunks = new Long2ObjectOpenHashMap<>();
+    }
+}
@@ -0,0 +1,61 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.hmarket.utils.BlockPosUtils;
+import cat.nyaa.hmarket.utils.TimeUtils;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Blocks with a shop creation in flight, keyed by world and packed position, each with an expiry time.
+ * <p>
+ * Entries are removed when the creation finishes, or dropped lazily once expired, so a lost unlock
+ * never protects a block forever.
+ */
+public class SignCreateLockTable {
+    private final Map<String, Long2LongOpenHashMap> locks = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger(0);
+
+    public void lock(@NotNull String world, int x, int y, int z, long ttlMillis) {
+        var worldLocks = locks.computeIfAbsent(world, k -> new Long2LongOpenHashMap());
+        synchronized (worldLocks) {
+            if (!worldLocks.containsKey(BlockPosUtils.packBlockPos(x, y, z))) size.incrementAndGet();
+            worldLocks.put(BlockPosUtils.packBlockPos(x, y, z), TimeUtils.getUnixTimeStampNow() + ttlMillis);
+        }
+    }
+
+    public void unlock(@NotNull String world, int x, int y, int z) {
+        var worldLocks = locks.get(world);
+        if (worldLocks == null) return;
+        synchronized (worldLocks) {
+            if (worldLocks.containsKey(BlockPosUtils.packBlockPos(x, y, z))) {
+                worldLocks.remove(BlockPosUtils.packBlockPos(x, y, z));
+                size.decrementAndGet();
+            }
+        }
+    }
+
+    public boolean isLocked(@NotNull String world, int x, int y, int z) {
+        if (isEmpty()) return false;
+        var worldLocks = locks.get(world);
+        if (worldLocks == null) return false;
+        var pos = BlockPosUtils.packBlockPos(x, y, z);
+        synchronized (worldLocks) {
+            if (!worldLocks.containsKey(pos)) return false;
+            if (worldLocks.get(pos) >= TimeUtils.getUnixTimeStampNow()) return true;
+            worldLocks.remove(pos);
+            size.decrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return true if no creation is in flight, checks can be skipped entirely
+     */
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+}
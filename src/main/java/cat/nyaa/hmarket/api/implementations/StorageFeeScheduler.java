@@ -0,0 +1,75 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.UUID;
+
+/**
+ * Listings ordered by the instant their next storage fee is due.
+ * <p>
+ * A fee is due once a whole day has passed since the listing was last billed and the free days are over, so the
+ * due instant follows from {@code createdAt}, {@code updatedAt} and the free days of the market. Rescheduling a
+ * listing leaves its old queue entry behind; stale entries are recognised by their due time and skipped.
+ */
+public class StorageFeeScheduler {
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private final PriorityQueue<DueListing> queue = new PriorityQueue<>(Comparator.comparingLong(DueListing::dueAt));
+    private final Int2LongOpenHashMap dueAtByItem = new Int2LongOpenHashMap();
+
+    public StorageFeeScheduler() {
+        dueAtByItem.defaultReturnValue(-1);
+    }
+
+    /**
+     * @return unix time in milliseconds the next fee of the listing is due, -1 if it never is
+     */
+    public static long nextDueAt(long createdAt, long updatedAt, int freeDays) {
+        if (freeDays < 0) return -1;
+        var billedDays = Math.floorDiv(updatedAt - createdAt, DAY_MILLIS);
+        return createdAt + Math.max(billedDays + 1, freeDays) * DAY_MILLIS;
+    }
+
+    /**
+     * @param replace replace the due time of a listing that is scheduled already
+     */
+    public synchronized void schedule(int itemId, @NotNull UUID market, long dueAt, boolean replace) {
+        if (dueAt < 0) {
+            dueAtByItem.remove(itemId);
+            return;
+        }
+        if (!replace && dueAtByItem.containsKey(itemId)) return;
+        dueAtByItem.put(itemId, dueAt);
+        queue.add(new DueListing(itemId, market, dueAt));
+    }
+
+    /**
+     * removes and returns up to {@code max} listings due at {@code now}, earliest first
+     */
+    public synchronized @NotNull List<DueListing> pollDue(long now, int max) {
+        List<DueListing> due = new ArrayList<>();
+        while (due.size() < max && !queue.isEmpty() && queue.peek().dueAt() <= now) {
+            var listing = queue.poll();
+            if (dueAtByItem.get(listing.itemId()) != listing.dueAt()) continue;
+            dueAtByItem.remove(listing.itemId());
+            due.add(listing);
+        }
+        return due;
+    }
+
+    public synchronized void clear() {
+        queue.clear();
+        dueAtByItem.clear();
+    }
+
+    public synchronized int size() {
+        return dueAtByItem.size();
+    }
+
+    public record DueListing(int itemId, UUID market, long dueAt) {
+    }
+}
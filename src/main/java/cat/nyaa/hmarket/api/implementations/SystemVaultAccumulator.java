@@ -0,0 +1,220 @@
+package cat.nyaa.hmarket.api.implementations;
+
+import cat.nyaa.ecore.EconomyCore;
+import cat.nyaa.hmarket.api.data.SystemVaultCategory;
+import cat.nyaa.hmarket.api.data.SystemVaultTotals;
+import cat.nyaa.hmarket.db.HmarketDatabaseManager;
+import cat.nyaa.hmarket.db.data.VaultSettlementData;
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import cat.nyaa.hmarket.utils.MainThreadWorkQueue;
+import cat.nyaa.hmarket.utils.TaskUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects taxes and fees meant for the system vault and deposits them in one economy call per settlement.
+ * <p>
+ * An amount only counts as recorded once its vault journal entry has been written, so income survives a crash and
+ * is settled on the next run. A settlement claims the unsettled entries and records itself in one transaction,
+ * stores the vault balance it sees, deposits, then deletes the entries and itself in one transaction. If the deposit
+ * fails the entries are released for the next settlement.
+ * <p>
+ * A settlement left unfinished by a crash is reconciled on start: if it never stored a balance it never deposited
+ * and is released; otherwise it counts as deposited when the vault has grown by at least its amount since. Both
+ * outcomes are logged with the numbers, so an admin can correct the rare case where other vault changes mislead it.
+ */
+public class SystemVaultAccumulator {
+    private static final double EPSILON = 1e-6;
+    private final HmarketDatabaseManager databaseManager;
+    private final EconomyCore economyCore;
+    private final Map<SystemVaultCategory, Double> accrued = new EnumMap<>(SystemVaultCategory.class);
+    private final Map<SystemVaultCategory, Double> settled = new EnumMap<>(SystemVaultCategory.class);
+    // held until the unfinished settlements are reconciled, a new deposit would skew the balance comparison
+    private final AtomicBoolean settling = new AtomicBoolean(true);
+    private double pending = 0;
+    private int settlements = 0;
+
+    public SystemVaultAccumulator(@NotNull HmarketDatabaseManager databaseManager, @NotNull EconomyCore economyCore) {
+        this.databaseManager = databaseManager;
+        this.economyCore = economyCore;
+        databaseManager.getUnfinishedVaultSettlements()
+                .thenCompose(unfinished -> TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.LOW,
+                        () -> unfinished.ifPresentOrElse(this::reconcile,
+                                () -> HMLogUtils.error("vault.settlement.read-unfinished-failed"))))
+                .whenComplete((v, throwable) -> {
+                    if (throwable != null) HMLogUtils.error("vault.settlement.reconcile-failed", "error", throwable);
+                    settling.set(false);
+                });
+    }
+
+    private void reconcile(@NotNull List<VaultSettlementData> unfinished) {
+        if (unfinished.isEmpty()) return;
+        var balance = economyCore.getSystemBalance();
+        for (VaultSettlementData settlement : unfinished) {
+            var before = settlement.balanceBefore();
+            var deposited = before != null && balance - before >= settlement.amount() - EPSILON;
+            HMLogUtils.audit("vault.settlement.reconciled", "settlement", settlement.settlementId(),
+                    "amount", settlement.amount(), "balance_before", before, "balance_now", balance,
+                    "outcome", deposited ? "deposited" : "released");
+            if (deposited) {
+                finish(settlement.settlementId(), settlement.amount());
+            } else {
+                databaseManager.revertVaultSettlement(settlement.settlementId()).thenAccept(result -> {
+                    if (result.isEmpty()) {
+                        HMLogUtils.audit("vault.settlement.release-failed", "settlement", settlement.settlementId(),
+                                "amount", settlement.amount());
+                        return;
+                    }
+                    synchronized (this) {
+                        pending += settlement.amount();
+                    }
+                });
+            }
+        }
+    }
+
+    /**
+     * records income for the system vault, deposited with the next settlement
+     */
+    public void record(@NotNull SystemVaultCategory category, double amount) {
+        if (amount <= 0) return;
+        databaseManager.insertVaultJournal(category.name(), amount).thenAccept(result -> {
+            if (result.isEmpty()) {
+                // taken from a player but neither journaled nor deposited
+                HMLogUtils.audit("vault.journal-failed", "category", category, "amount", amount);
+                return;
+            }
+            // on the storage thread, before any later claim can run
+            synchronized (this) {
+                accrued.merge(category, amount, Double::sum);
+                pending += amount;
+            }
+        });
+    }
+
+    /**
+     * deposits everything journaled so far into the system vault.
+     *
+     * @param blocking wait for the deposit on the calling thread, which must be the main thread. Used on shutdown
+     *                 when the scheduler no longer runs tasks.
+     * @return the amount deposited, 0 if there was nothing to settle or a settlement is already running
+     */
+    public CompletableFuture<Double> settle(boolean blocking) {
+        if (!settling.compareAndSet(false, true)) return CompletableFuture.completedFuture(0.0);
+        var settlementId = System.currentTimeMillis();
+        var claim = databaseManager.claimVaultJournal(settlementId);
+        CompletableFuture<Double> result;
+        if (blocking) {
+            var claimed = begin(claim.join());
+            var deposited = 0.0;
+            if (claimed != null) {
+                var marked = databaseManager.setVaultSettlementBalance(settlementId, claimed.balanceBefore()).join();
+                deposited = deposit(settlementId, claimed, marked.filter(i -> i > 0).isPresent());
+            }
+            result = CompletableFuture.completedFuture(deposited);
+        } else {
+            result = claim
+                    .thenCompose(totals -> TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.LOW, () -> begin(totals)))
+                    .thenCompose(claimed -> {
+                        if (claimed == null) return CompletableFuture.completedFuture(0.0);
+                        return databaseManager.setVaultSettlementBalance(settlementId, claimed.balanceBefore())
+                                .thenCompose(marked -> TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.LOW,
+                                        () -> deposit(settlementId, claimed, marked.filter(i -> i > 0).isPresent())));
+                    });
+        }
+        return result.whenComplete((amount, throwable) -> {
+            if (throwable != null) HMLogUtils.error("vault.settle-failed", "settlement", settlementId, "error", throwable);
+            settling.set(false);
+        });
+    }
+
+    /**
+     * main thread
+     *
+     * @return null if there is nothing to deposit
+     */
+    private @Nullable Claimed begin(@NotNull Optional<Map<String, Double>> claimed) {
+        if (claimed.isEmpty()) {
+            HMLogUtils.warning("vault.claim-failed", "note", "retrying with the next settlement");
+            return null;
+        }
+        var totals = claimed.get();
+        if (totals.isEmpty()) return null;
+        var sum = totals.values().stream().mapToDouble(Double::doubleValue).sum();
+        synchronized (this) {
+            pending -= sum;
+        }
+        return new Claimed(totals, sum, economyCore.getSystemBalance());
+    }
+
+    /**
+     * main thread
+     *
+     * @param marked whether the balance before the deposit is stored, without it a restart could not tell
+     */
+    private double deposit(long settlementId, @NotNull Claimed claimed, boolean marked) {
+        if (!marked) {
+            HMLogUtils.warning("vault.settle-failed", "settlement", settlementId, "amount", claimed.sum(),
+                    "stage", "store-balance", "note", "retrying with the next settlement");
+            release(settlementId, claimed.sum());
+            return 0;
+        }
+        if (claimed.sum() <= 0 || !economyCore.depositSystemVault(claimed.sum())) {
+            if (claimed.sum() > 0) {
+                HMLogUtils.warning("vault.settle-failed", "settlement", settlementId, "amount", claimed.sum(),
+                        "stage", "deposit", "note", "retrying with the next settlement");
+            }
+            release(settlementId, claimed.sum());
+            return 0;
+        }
+        finish(settlementId, claimed.sum());
+        synchronized (this) {
+            claimed.totals().forEach((category, amount) -> parseCategory(category).ifPresent(c -> settled.merge(c, amount, Double::sum)));
+            settlements++;
+        }
+        return claimed.sum();
+    }
+
+    private void finish(long settlementId, double sum) {
+        databaseManager.finishVaultSettlement(settlementId).whenComplete((result, throwable) -> {
+            if (throwable != null || result.isEmpty()) {
+                // deposited already: the settlement stays with its balance and is reconciled on the next start
+                HMLogUtils.audit("vault.settlement.finish-failed", "settlement", settlementId, "amount", sum);
+            }
+        });
+    }
+
+    private void release(long settlementId, double sum) {
+        databaseManager.revertVaultSettlement(settlementId).thenAccept(result -> {
+            if (result.isEmpty()) {
+                // not deposited, the settlement stays and is reconciled on the next start
+                HMLogUtils.audit("vault.settlement.release-failed", "settlement", settlementId, "amount", sum);
+            }
+        });
+        synchronized (this) {
+            pending += sum;
+        }
+    }
+
+    public synchronized @NotNull SystemVaultTotals getTotals() {
+        return new SystemVaultTotals(new EnumMap<>(accrued), new EnumMap<>(settled), pending, settlements);
+    }
+
+    private static Optional<SystemVaultCategory> parseCategory(@NotNull String name) {
+        try {
+            return Optional.of(SystemVaultCategory.valueOf(name));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private record Claimed(@NotNull Map<String, Double> totals, double sum, double balanceBefore) {
+    }
+}
@@ -1,11 +1,20 @@
 package cat.nyaa.hmarket.command;
 
 import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.api.IMarketShopLocation;
+import cat.nyaa.hmarket.api.data.SystemVaultCategory;
 import cat.nyaa.hmarket.command.sub.HMSignShopCommand;
+import cat.nyaa.hmarket.utils.HMLogUtils;
 import cat.nyaa.nyaacore.cmdreceiver.Arguments;
 import cat.nyaa.nyaacore.cmdreceiver.CommandReceiver;
 import cat.nyaa.nyaacore.cmdreceiver.SubCommand;
+import org.bukkit.block.Block;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+
+import java.util.ArrayList;
+import java.util.List;
 
 public class HMMainCommand extends CommandReceiver {
     private final CommandManager commandManager;
@@ -17,10 +26,177 @@ public class HMMainCommand extends CommandReceiver {
 
     @SubCommand(value = "reload", permission = "hmarket.reload")
     public void reload(CommandSender sender, Arguments args) {
+        var next = args.next();
+        if ("full".equalsIgnoreCase(next)) {
+            commandManager.getPlugin().onFullReload();
+            sender.sendMessage("HMarket reloaded.");
+            return;
+        }
         commandManager.getPlugin().onReload();
-        sender.sendMessage("HMarket reloaded.");
+        sender.sendMessage("HMarket config and language reloaded, use /h reload full for storage and ui mode changes.");
+    }
+
+    /**
+     * times the per-block and the bulk protection checks on a 1000-block cube around the shop sign the player
+     * looks at, and on a cube 48 blocks behind the player which should be away from any shop
+     */
+    @SubCommand(value = "benchmark-protection", permission = "hmarket.debug")
+    public void benchmarkProtection(CommandSender sender, Arguments args) {
+        if (!commandManager.getPlugin().getHMConfig().debugBenchmarkCommands) {
+            sender.sendMessage("Benchmark commands are disabled, set debug.benchmark-commands to true to use them");
+            return;
+        }
+        if (!(sender instanceof Player player)) {
+            HMI18n.send(sender, "command.only-player-can-do");
+            return;
+        }
+        var hmApi = Hmarket.getAPI();
+        if (hmApi == null) return;
+        var next = args.next();
+        int iterations;
+        try {
+            iterations = next == null ? 100 : Math.max(1, Integer.parseInt(next));
+        } catch (NumberFormatException e) {
+            sender.sendMessage("Usage: /h benchmark-protection [iterations]");
+            return;
+        }
+        var target = player.getTargetBlockExact(8);
+        if (target == null) {
+            HMI18n.send(sender, "command.invalid-target-location");
+            return;
+        }
+        var direction = player.getLocation().getDirection().setY(0);
+        if (direction.lengthSquared() == 0) direction.setX(1);
+        var far = player.getLocation().subtract(direction.normalize().multiply(48)).getBlock();
+        if (!far.getWorld().isChunkLoaded(far.getX() >> 4, far.getZ() >> 4)) {
+            HMI18n.send(sender, "command.invalid-target-location");
+            return;
+        }
+        var shopLocation = hmApi.getShopLocationApi();
+        benchmarkProtection(sender, "near", shopLocation, cubeAround(target), iterations);
+        benchmarkProtection(sender, "far", shopLocation, cubeAround(far), iterations);
+    }
+
+    private static void benchmarkProtection(CommandSender sender, String name, IMarketShopLocation shopLocation, List<Block> blocks, int iterations) {
+        int kept = 0;
+        var start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            var copy = new ArrayList<>(blocks);
+            copy.removeIf(block -> shopLocation.isBlockProtected(block, null));
+            kept = copy.size();
+        }
+        var perBlockNanos = (System.nanoTime() - start) / iterations;
+        int bulkKept = 0;
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            var copy = new ArrayList<>(blocks);
+            shopLocation.removeProtectedBlocks(copy);
+            bulkKept = copy.size();
+        }
+        var bulkNanos = (System.nanoTime() - start) / iterations;
+        sender.sendMessage(String.format("[%s] %d blocks, %d iterations: per-block %.3f ms (kept %d), bulk %.3f ms (kept %d)",
+                name, blocks.size(), iterations, perBlockNanos / 1e6, kept, bulkNanos / 1e6, bulkKept));
+    }
+
+    @SubCommand(value = "storage-stats", permission = "hmarket.debug")
+    public void storageStats(CommandSender sender, Arguments args) {
+        var storage = Hmarket.getInstance().getStorageEngine();
+        if (storage == null) return;
+        var metrics = storage.getMetrics();
+        sender.sendMessage(String.format("tasks: %d submitted, %d completed, queue %d (max %d), over capacity %d, deferred %d",
+                metrics.submitted(), metrics.completed(), metrics.queueDepth(), metrics.maxQueueDepth(),
+                metrics.overCapacity(), metrics.deferred()));
+        sender.sendMessage(String.format("avg queue wait %.3f ms, avg run %.3f ms, reconnects %d",
+                metrics.avgQueueWaitMicros() / 1e3, metrics.avgRunMicros() / 1e3, metrics.reconnects()));
+        var api = Hmarket.getAPI();
+        if (api != null) {
+            sender.sendMessage("storage fees scheduled for " + api.getMarketAPI().getScheduledStorageFees() + " listings");
+            api.getShopLocationApi().getWorldWarmupMillis().forEach((world, millis) ->
+                    sender.sendMessage(String.format("[%s] shop locations loaded in %d ms", world, millis)));
+        }
+        var maintenance = Hmarket.getInstance().getStorageMaintenance();
+        var report = maintenance == null ? null : maintenance.getLastReport();
+        if (report == null) return;
+        sender.sendMessage(String.format("last maintenance: %d expired and %d excess messages deleted",
+                report.expiredMessages(), report.excessMessages()));
+        for (var schema : report.schemas()) {
+            sender.sendMessage(String.format("[%s] file %.2f MiB, used %.2f MiB, %d free pages, %d pages released%s",
+                    schema.schema(), schema.fileBytes() / 1048576.0, schema.usedBytes() / 1048576.0, schema.freePages(), schema.releasedPages(),
+                    schema.incremental() ? "" : " (not incremental, see storage-convert-vacuum)"));
+        }
+    }
+
+    @SubCommand(value = "storage-maintain", permission = "hmarket.admin")
+    public void storageMaintain(CommandSender sender, Arguments args) {
+        var maintenance = Hmarket.getInstance().getStorageMaintenance();
+        if (maintenance == null) return;
+        maintenance.run().thenAccept(report -> sender.sendMessage("Storage maintenance finished: " + report));
+    }
+
+    /**
+     * rewrites the database files that are not in incremental auto vacuum mode yet, market queries wait meanwhile
+     */
+    @SubCommand(value = "storage-convert-vacuum", permission = "hmarket.admin")
+    public void storageConvertVacuum(CommandSender sender, Arguments args) {
+        var maintenance = Hmarket.getInstance().getStorageMaintenance();
+        if (maintenance == null) return;
+        sender.sendMessage("Converting the database files, the market is unresponsive until this finishes");
+        maintenance.convertToIncrementalVacuum().thenAccept(converted -> sender.sendMessage(converted.isEmpty()
+                ? "Every database file is already in incremental auto vacuum mode"
+                : "Converted " + String.join(", ", converted) + " to incremental auto vacuum"));
+    }
+
+    @SubCommand(value = "work-stats", permission = "hmarket.debug")
+    public void workStats(CommandSender sender, Arguments args) {
+        var workQueue = Hmarket.getInstance().getWorkQueue();
+        if (workQueue == null) return;
+        var metrics = workQueue.getMetrics();
+        sender.sendMessage(String.format("main thread work: backlog %d %s, %d submitted, %d completed",
+                metrics.backlog(), metrics.backlogByPriority(), metrics.submitted(), metrics.completed()));
+        sender.sendMessage(String.format("last tick %.3f ms (%d tasks), avg %.3f ms, max %.3f ms, budget %.3f ms, %d ticks over budget",
+                metrics.lastTickNanos() / 1e6, metrics.lastTickTasks(), metrics.avgTickNanos() / 1e6,
+                metrics.maxTickNanos() / 1e6, metrics.budgetNanos() / 1e6, metrics.ticksOverBudget()));
+    }
+
+    @SubCommand(value = "log-stats", permission = "hmarket.debug")
+    public void logStats(CommandSender sender, Arguments args) {
+        var pipeline = HMLogUtils.getPipeline();
+        if (pipeline == null) return;
+        var metrics = pipeline.getMetrics();
+        sender.sendMessage(String.format("log: %d written, %d dropped, %d warnings suppressed, backlog %d/%d",
+                metrics.written(), metrics.dropped(), metrics.suppressed(), metrics.backlog(), metrics.capacity()));
     }
 
+    @SubCommand(value = "vault-stats", permission = "hmarket.debug")
+    public void vaultStats(CommandSender sender, Arguments args) {
+        var api = Hmarket.getAPI();
+        if (api == null) return;
+        var totals = api.getSystemVault().getTotals();
+        for (var category : SystemVaultCategory.values()) {
+            sender.sendMessage(String.format("[%s] accrued %.2f, settled %.2f", category,
+                    totals.accrued().getOrDefault(category, 0.0), totals.settled().getOrDefault(category, 0.0)));
+        }
+        sender.sendMessage(String.format("pending %.2f, %d settlements", totals.pending(), totals.settlements()));
+    }
+
+    @SubCommand(value = "vault-settle", permission = "hmarket.debug")
+    public void vaultSettle(CommandSender sender, Arguments args) {
+        var api = Hmarket.getAPI();
+        if (api == null) return;
+        api.getSystemVault().settle(false).thenAccept(amount -> sender.sendMessage("Settled " + amount + " into the system vault"));
+    }
+
+    private static List<Block> cubeAround(Block center) {
+        var blocks = new ArrayList<Block>(1000);
+        for (int dx = -5; dx < 5; dx++) {
+            for (int dy = -5; dy < 5; dy++) {
+                for (int dz = -5; dz < 5; dz++) {
+                    blocks.add(center.getRelative(dx, dy, dz));
+                }
+            }
+        }
+        return blocks;
+    }
 
     @Override
     public String getHelpPrefix() {
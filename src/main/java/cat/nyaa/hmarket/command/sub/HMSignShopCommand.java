@@ -10,7 +10,10 @@ import cat.nyaa.nyaacore.cmdreceiver.Arguments;
 import cat.nyaa.nyaacore.cmdreceiver.CommandReceiver;
 import cat.nyaa.nyaacore.cmdreceiver.SubCommand;
 import org.bukkit.command.CommandSender;
+import org.bukkit.entity.ItemFrame;
 import org.bukkit.entity.Player;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.UUID;
 
@@ -138,6 +141,46 @@ public class HMSignShopCommand extends CommandReceiver {
         hmApi.getMarketAPI().commandOffer(player, player.getUniqueId(), item, price);
     }
 
+    @SubCommand(value = "frame", permission = "hmarket.my")
+    public void frame(CommandSender sender, Arguments args) {
+        if (!(sender instanceof Player player)) {
+            HMI18n.send(sender, "command.only-player-can-do");
+            return;
+        }
+        var hmApi = Hmarket.getAPI();
+        if (hmApi == null) return;
+        var itemId = args.nextInt();
+        var frame = getTargetFrame(player);
+        if (frame == null) {
+            HMI18n.send(sender, "command.invalid-target-location");
+            return;
+        }
+        hmApi.getShopFrameApi().onFrameCreate(player, frame, itemId);
+    }
+
+    @SubCommand(value = "unframe", permission = "hmarket.my")
+    public void unframe(CommandSender sender, Arguments args) {
+        if (!(sender instanceof Player player)) {
+            HMI18n.send(sender, "command.only-player-can-do");
+            return;
+        }
+        var hmApi = Hmarket.getAPI();
+        if (hmApi == null) return;
+        var frame = getTargetFrame(player);
+        if (frame == null) {
+            HMI18n.send(sender, "command.invalid-target-location");
+            return;
+        }
+        hmApi.getShopFrameApi().onFrameRemove(player, frame);
+    }
+
+    private static @Nullable ItemFrame getTargetFrame(@NotNull Player player) {
+        var rayTraceResult = player.getWorld().rayTraceEntities(player.getEyeLocation(), player.getEyeLocation().getDirection(), 10,
+                entity -> entity instanceof ItemFrame);
+        if (rayTraceResult == null) return null;
+        return rayTraceResult.getHitEntity() instanceof ItemFrame frame ? frame : null;
+    }
+
     @Override
     public String getHelpPrefix() {
         return "my";
@@ -0,0 +1,12 @@
+package cat.nyaa.hmarket.config;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * notified on the main thread after {@code /h reload} has swapped in a new config, compare the two to find out
+ * what changed
+ */
+@FunctionalInterface
+public interface ConfigReloadListener {
+    void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current);
+}
@@ -128,9 +128,87 @@ timers:
     @Serializable(name = "timers.request.interval")
     public int timerRequestInterval = 60;
 
+    // listings are billed as their storage fee falls due, checked every interval with at most this many per check
+    @Serializable(name = "storage-fee.check-interval-ticks")
+    public int storageFeeCheckIntervalTicks = 20;
+    @Serializable(name = "storage-fee.max-listings-per-check")
+    public int storageFeeMaxListingsPerCheck = 8;
+
     @Serializable(name = "sign.create.max-lock-time-ms")
     public long maxSignCreateLockTime = 10000;
 
+    // load shop locations per 32x32 chunk region as chunks load instead of per world
+    @Serializable(name = "sign.load-by-region")
+    public boolean signLoadByRegion = false;
+
+    // write listing count and cheapest price on lines 3 and 4 of shop signs, replacing what the owner wrote there
+    @Serializable(name = "sign.display.enabled")
+    public boolean signDisplayEnabled = false;
+    @Serializable(name = "sign.display.max-updates-per-tick")
+    public int signDisplayMaxUpdatesPerTick = 32;
+
+    // sales of a seller within this many seconds are sent as one message, 0 sends every sale on its own
+    @Serializable(name = "message.sale-digest.window-seconds")
+    public int saleDigestWindowSeconds = 60;
+
+    // taxes and fees are journaled and paid into the system vault in one deposit per interval
+    @Serializable(name = "economy.vault-settle-interval-seconds")
+    public int vaultSettleIntervalSeconds = 60;
+
+    // tasks waiting for the database thread at which message writes and fee billing back off, trades still go through
+    @Serializable(name = "storage.queue-capacity")
+    public int storageQueueCapacity = 4096;
+
+    // retention and compaction, run every interval while at most max-online-players are online
+    @Serializable(name = "storage.maintenance.interval-minutes")
+    public int storageMaintenanceIntervalMinutes = 30;
+    @Serializable(name = "storage.maintenance.max-online-players")
+    public int storageMaintenanceMaxOnlinePlayers = 5;
+    @Serializable(name = "storage.maintenance.vacuum-budget-ms")
+    public int storageMaintenanceVacuumBudgetMs = 200;
+    // 0 keeps offline messages forever
+    @Serializable(name = "message.retention.max-age-days")
+    public int messageRetentionMaxAgeDays = 90;
+    @Serializable(name = "message.retention.max-per-player")
+    public int messageRetentionMaxPerPlayer = 1000;
+
+    // binary journal of offers, purchases, withdrawals and storage fees in journal/, one file per day
+    @Serializable(name = "journal.enabled")
+    public boolean journalEnabled = true;
+    @Serializable(name = "journal.flush-interval-ms")
+    public int journalFlushIntervalMs = 1000;
+
+    // main thread work queued by the plugin runs for at most this long per tick, the rest waits for the next tick
+    @Serializable(name = "main-thread.budget-ms")
+    public int mainThreadBudgetMs = 5;
+
+    // log lines are buffered and written by a background thread, lines past a full buffer are dropped
+    @Serializable(name = "log.buffer-size")
+    public int logBufferSize = 8192;
+    // the same warning is logged at most this often per window, the rest is counted
+    @Serializable(name = "log.warning-rate-limit.max-per-window")
+    public int logWarningMaxPerWindow = 20;
+    @Serializable(name = "log.warning-rate-limit.window-seconds")
+    public int logWarningWindowSeconds = 60;
+
+    @Serializable(name = "ui.packet-mode")
+    public boolean uiPacketMode = false;
+    @Serializable(name = "ui.click.debounce-ticks")
+    public int uiClickDebounceTicks = 1;
+    @Serializable(name = "ui.purchase.max-in-flight")
+    public int uiPurchaseMaxInFlight = 1;
+    @Serializable(name = "ui.purchase.max-queued")
+    public int uiPurchaseMaxQueued = 4;
+
+    // benchmark subcommands load chunks and run thousands of protection checks, keep them off on live servers
+    @Serializable(name = "debug.benchmark-commands")
+    public boolean debugBenchmarkCommands = false;
+
+    @Serializable(name = "cache.player-name.max-size")
+    public int playerNameCacheMaxSize = 4096;
+    @Serializable(name = "cache.player-name.refresh-minutes")
+    public int playerNameCacheRefreshMinutes = 60;
+
     public HMConfig(Hmarket plugin) {
         this.plugin = plugin;
         load();
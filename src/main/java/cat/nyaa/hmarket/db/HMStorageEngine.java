@@ -0,0 +1,276 @@
+package cat.nyaa.hmarket.db;
+
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import com.google.common.collect.Lists;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Owns the SQLite connection and the storage thread shared by the market and the offline message store.
+ * <p>
+ * The market database is the main schema and the message database is attached as {@value #MESSAGE_SCHEMA}, so both
+ * keep their files but share one connection and one writer thread. The connection is only used and (re)opened on
+ * the storage thread, a lost connection is reopened by the next task instead of by the caller.
+ * <p>
+ * Submitting never blocks: the server thread must not stall, and continuations running on the storage thread submit
+ * to this same executor, so waiting for a free slot there would wait on itself. Work that can wait, offline message
+ * writes and fetches and storage fee billing, is admitted through {@link #tryExecute} and {@link #isSaturated} and
+ * backs off once the queue reaches its capacity, which bounds it. Statements of a trade and the continuations
+ * chained onto them are always accepted, so they can go over the capacity; that is counted and logged.
+ */
+public class HMStorageEngine {
+    public static final String MARKET_DATABASE_FILE = "SQLiteDatabase.db";
+    public static final String MESSAGE_DATABASE_FILE = "ao_message.db";
+    public static final String MESSAGE_SCHEMA = "aomsg";
+    private final JavaPlugin plugin;
+    private final ThreadPoolExecutor executor;
+    private final Executor meteredExecutor = this::execute;
+    private final Supplier<Connection> connectionSupplier = this::getConnection;
+    private volatile Thread storageThread;
+    private Connection connection;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong runNanos = new AtomicLong();
+    private final int queueCapacity;
+    private final AtomicLong overCapacity = new AtomicLong();
+    private final AtomicLong deferred = new AtomicLong();
+    private final AtomicLong reconnects = new AtomicLong();
+    private volatile int maxQueueDepth = 0;
+
+    public HMStorageEngine(@NotNull JavaPlugin plugin, int queueCapacity) {
+        this.plugin = plugin;
+        this.queueCapacity = Math.max(16, queueCapacity);
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(),
+                runnable -> {
+                    var thread = new Thread(runnable, "HMarket-Storage");
+                    thread.setDaemon(true);
+                    storageThread = thread;
+                    return thread;
+                },
+                (runnable, pool) -> {
+                    // only after shutdown: the queued tasks still draining may chain further statements, those run
+                    // inline so their futures complete
+                    if (Thread.currentThread() == storageThread) {
+                        runnable.run();
+                        return;
+                    }
+                    throw new RejectedExecutionException("storage engine is shut down");
+                });
+    }
+
+    /**
+     * @return executor of the storage thread, every database access goes through it
+     */
+    public @NotNull Executor getExecutor() {
+        return meteredExecutor;
+    }
+
+    /**
+     * @return supplier of the connection, to be called on the storage thread
+     */
+    public @NotNull Supplier<Connection> getConnectionSupplier() {
+        return connectionSupplier;
+    }
+
+    /**
+     * @return true if the queue is at its capacity, work that can wait should back off and retry later
+     */
+    public boolean isSaturated() {
+        return executor.getQueue().size() >= queueCapacity;
+    }
+
+    /**
+     * submits work that can wait, unless the queue is at its capacity
+     *
+     * @return false if the task was not submitted, the caller keeps it and retries later
+     * @throws RejectedExecutionException after shutdown
+     */
+    public boolean tryExecute(@NotNull Runnable task) {
+        if (isSaturated()) {
+            deferred.incrementAndGet();
+            return false;
+        }
+        execute(task);
+        return true;
+    }
+
+    private void execute(@NotNull Runnable task) {
+        var queuedAt = System.nanoTime();
+        submitted.incrementAndGet();
+        executor.execute(() -> {
+            var startedAt = System.nanoTime();
+            queueWaitNanos.addAndGet(startedAt - queuedAt);
+            try {
+                task.run();
+            } finally {
+                runNanos.addAndGet(System.nanoTime() - startedAt);
+                completed.incrementAndGet();
+            }
+        });
+        var depth = executor.getQueue().size();
+        if (depth > maxQueueDepth) maxQueueDepth = depth;
+        if (depth > queueCapacity) {
+            overCapacity.incrementAndGet();
+            HMLogUtils.warning("storage.queue-over-capacity", "depth", depth, "capacity", queueCapacity);
+        }
+    }
+
+    /**
+     * storage thread only. Reopens the connection if it was lost.
+     *
+     * @return the connection, or null if the database can not be opened
+     */
+    public @Nullable Connection getConnection() {
+        if (Thread.currentThread() != storageThread) {
+            throw new IllegalStateException("the connection is only available on the storage thread");
+        }
+        try {
+            if (connection != null && !connection.isClosed()) return connection;
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+        closeConnection();
+        connection = openConnection();
+        if (connection != null && reconnects.incrementAndGet() > 1) {
+            HMLogUtils.warning("storage.reconnected", "reconnects", reconnects.get() - 1);
+        }
+        return connection;
+    }
+
+    private @Nullable Connection openConnection() {
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (ClassNotFoundException ignored) {
+        }
+        Connection conn = null;
+        try {
+            conn = DriverManager.getConnection("jdbc:sqlite:" + new File(plugin.getDataFolder(), MARKET_DATABASE_FILE).getAbsolutePath());
+            conn.setAutoCommit(true);
+            try (var statement = conn.createStatement()) {
+                statement.executeUpdate("PRAGMA journal_mode = WAL;");
+                statement.executeUpdate("PRAGMA synchronous = NORMAL;");
+                statement.executeUpdate("PRAGMA busy_timeout = 5000;");
+            }
+            try (var attach = conn.prepareStatement("ATTACH DATABASE ? AS " + MESSAGE_SCHEMA + ";")) {
+                attach.setString(1, new File(plugin.getDataFolder(), MESSAGE_DATABASE_FILE).getAbsolutePath());
+                attach.executeUpdate();
+            }
+            try (var statement = conn.createStatement()) {
+                statement.executeUpdate("PRAGMA " + MESSAGE_SCHEMA + ".journal_mode = WAL;");
+            }
+            return conn;
+        } catch (SQLException e) {
+            if (conn != null) {
+                try {
+                    conn.close();
+                } catch (SQLException ignored) {
+                }
+            }
+            HMLogUtils.error("storage.open-failed", "error", e, "note", "retrying with the next task");
+            return null;
+        }
+    }
+
+    private void closeConnection() {
+        if (connection == null) return;
+        try {
+            connection.close();
+        } catch (SQLException ignored) {
+        }
+        connection = null;
+    }
+
+    /**
+     * runs every statement of a script file in one batch
+     *
+     * @param filename script under sql/
+     * @return true if the script ran
+     */
+    public @NotNull CompletableFuture<Boolean> runScript(@NotNull String filename) {
+        return CompletableFuture.supplyAsync(() -> {
+            var conn = getConnection();
+            if (conn == null) return false;
+            var res = plugin.getResource("sql/" + filename);
+            if (res == null) {
+                HMLogUtils.error("storage.script-missing", "script", filename);
+                return false;
+            }
+            try (res; var statement = conn.createStatement()) {
+                for (String sql : splitSql(res.readAllBytes())) {
+                    statement.addBatch(sql);
+                }
+                statement.executeBatch();
+                return true;
+            } catch (IOException | SQLException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }, meteredExecutor);
+    }
+
+    private static @NotNull List<String> splitSql(byte @NotNull [] sqlBytes) {
+        List<String> result = Lists.newArrayList();
+        for (int i = 0, j = 0; i < sqlBytes.length; i++) {
+            if (sqlBytes[i] == ';' || i == sqlBytes.length - 1) {
+                var sql = new String(sqlBytes, j, i - j + 1);
+                j = i + 1;
+                if (sql.isBlank() || sql.equals(";")) continue;
+                result.add(sql);
+            }
+        }
+        return result;
+    }
+
+    public @NotNull StorageMetrics getMetrics() {
+        var done = completed.get();
+        return new StorageMetrics(
+                submitted.get(),
+                done,
+                executor.getQueue().size(),
+                maxQueueDepth,
+                overCapacity.get(),
+                deferred.get(),
+                done == 0 ? 0 : queueWaitNanos.get() / done / 1000,
+                done == 0 ? 0 : runNanos.get() / done / 1000,
+                Math.max(0, reconnects.get() - 1)
+        );
+    }
+
+    /**
+     * runs the queued tasks, then closes the connection
+     */
+    public void shutdown() {
+        executor.execute(this::closeConnection);
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                HMLogUtils.warning("storage.shutdown-timeout", "dropped", executor.shutdownNow().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param overCapacity       submissions that found the queue above its capacity
+     * @param deferred           submissions of work that can wait turned away at capacity
+     * @param avgQueueWaitMicros average time a task waited in the queue
+     * @param avgRunMicros       average time a task ran
+     */
+    public record StorageMetrics(long submitted, long completed, int queueDepth, int maxQueueDepth,
+                                 long overCapacity, long deferred, long avgQueueWaitMicros, long avgRunMicros, long reconnects) {
+    }
+}
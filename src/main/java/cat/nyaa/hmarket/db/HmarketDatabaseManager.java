@@ -2,11 +2,15 @@ package cat.nyaa.hmarket.db;
 
 import cat.nyaa.hmarket.Hmarket;
 import cat.nyaa.hmarket.api.data.BlockLocationData;
+import cat.nyaa.hmarket.db.data.ShopFrameData;
 import cat.nyaa.hmarket.db.data.ShopItemData;
 import cat.nyaa.hmarket.db.data.ShopLocationData;
+import cat.nyaa.hmarket.db.data.StorageFeeDueData;
+import cat.nyaa.hmarket.db.data.VaultSettlementData;
 import cat.nyaa.hmarket.utils.DBFunctionUtils;
 import cat.nyaa.hmarket.utils.DatabaseUtils;
 import cat.nyaa.hmarket.utils.HMLogUtils;
+import cat.nyaa.hmarket.utils.MarketIdUtils;
 import cat.nyaa.hmarket.utils.TimeUtils;
 import cat.nyaa.nyaacore.utils.ItemStackUtils;
 import com.google.common.collect.Lists;
@@ -14,10 +18,11 @@ import org.bukkit.inventory.ItemStack;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 
-import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.*;
@@ -26,86 +31,36 @@ import java.util.function.Supplier;
 public class HmarketDatabaseManager {
     public static final String TABLE_SHOP_ITEM = "shop_item";
     public static final String TABLE_SHOP_LOCATION = "shop_location_v2";
-    private static final LinkedBlockingQueue<Runnable> databaseExecutorQueue = new LinkedBlockingQueue<>();
-    public static final ExecutorService databaseExecutor =
-            new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, databaseExecutorQueue);
-    private final Connection connection;
+    private final Supplier<Connection> connection;
+    private final Executor databaseExecutor;
+    private final HMStorageEngine storage;
     private final Hmarket plugin;
 
-
-    public HmarketDatabaseManager(Hmarket plugin) {
+    public HmarketDatabaseManager(Hmarket plugin, @NotNull HMStorageEngine storage) {
         this.plugin = plugin;
-        HMLogUtils.logInfo("Connecting to database...");
-        Optional<Connection> optConn = Optional.empty();
-        try {
-            optConn = DatabaseUtils.newSqliteJdbcConnection(plugin).get();
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
-        if (optConn.isEmpty()) {
-            throw new RuntimeException("Failed to connect to database");
-        }
-        this.connection = optConn.get();
-        try {
-            this.connection.setAutoCommit(true);
-        } catch (SQLException e) {
-            e.printStackTrace();
+        this.connection = storage.getConnectionSupplier();
+        this.databaseExecutor = storage.getExecutor();
+        this.storage = storage;
+        HMLogUtils.logInfo("Initializing database...");
+        if (!storage.runScript("init.sql").join()) {
+            throw new RuntimeException("Failed to initialize database");
         }
-        initDatabase(plugin);
     }
 
     @Contract("_ -> new")
-    public static <U> @NotNull CompletableFuture<U> supplyAsync(Supplier<U> supplier) {
-        if (databaseExecutor.isShutdown()) throw new RuntimeException("playerDataExecutor is shutdown");
+    public <U> @NotNull CompletableFuture<U> supplyAsync(Supplier<U> supplier) {
         return CompletableFuture.supplyAsync(supplier, databaseExecutor);
     }
 
-    public Hmarket getPlugin() {
-        return plugin;
+    /**
+     * @see HMStorageEngine#isSaturated()
+     */
+    public boolean isSaturated() {
+        return storage.isSaturated();
     }
 
-    private void initDatabase(@NotNull Hmarket plugin) {
-        HMLogUtils.logInfo("Initializing database...");
-        var res = plugin.getResource("sql/" + "init.sql");
-        if (res == null) {
-            throw new RuntimeException("Failed to load init.sql");
-        }
-        byte[] sqlBytes;
-        try {
-            sqlBytes = res.readAllBytes();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
-        List<String> sqlList = splitSql(sqlBytes);
-        try (var statement = connection.createStatement()) {
-            for (String sql : sqlList) {
-                statement.addBatch(sql);
-            }
-            statement.executeBatch();
-        } catch (SQLException e) {
-            throw new RuntimeException(e);
-        }
-
-    }
-
-    private @NotNull List<String> splitSql(byte @NotNull [] sqlBytes) {
-        List<String> result = Lists.newArrayList();
-        for (int i = 0, j = 0; i < sqlBytes.length; i++) {
-            if (sqlBytes[i] == ';' || i == sqlBytes.length - 1) {
-                var sql = new String(sqlBytes, j, i - j + 1);
-                j = i + 1;
-                if (sql.isEmpty() || sql.equals(";")) continue;
-                result.add(sql);
-            }
-        }
-        return result;
-    }
-
-    public void close() {
-        try {
-            this.connection.close();
-        } catch (SQLException ignored) {
-        }
+    public Hmarket getPlugin() {
+        return plugin;
     }
 
     public CompletableFuture<Optional<ShopItemData>> getShopItemData(int itemId) {
@@ -149,9 +104,9 @@ public class HmarketDatabaseManager {
                 databaseExecutor, itemId);
     }
 
-    public @NotNull CompletableFuture<Optional<List<ShopItemData>>> getNeedUpdateItems(long begin) {
-        return DatabaseUtils.executeQueryAsync(connection, plugin, "getNeedUpdateItems.sql",
-                databaseExecutor, DBFunctionUtils.getDataListFromResultSet(ShopItemData.class), begin);
+    public @NotNull CompletableFuture<Optional<List<StorageFeeDueData>>> getStorageFeeSchedule() {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getStorageFeeSchedule.sql",
+                databaseExecutor, DBFunctionUtils.getDataListFromResultSet(StorageFeeDueData.class));
     }
 
     public @NotNull CompletableFuture<Optional<Integer>> setItemUpdateTime(int itemId, long now) {
@@ -208,6 +163,45 @@ public class HmarketDatabaseManager {
                 DBFunctionUtils.getDataListFromResultSet(ShopLocationData.class));
     }
 
+    public @NotNull CompletableFuture<Optional<@NotNull List<ShopLocationData>>> getShopLocationsByWorld(@NotNull String world) {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getShopLocationsByWorld.sql", databaseExecutor,
+                DBFunctionUtils.getDataListFromResultSet(ShopLocationData.class), world);
+    }
+
+    public @NotNull CompletableFuture<Optional<@NotNull List<ShopLocationData>>> getShopLocationsInChunkRange(
+            @NotNull String world, int minChunkX, int maxChunkX, int minChunkZ, int maxChunkZ) {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getShopLocationsInChunkRange.sql", databaseExecutor,
+                DBFunctionUtils.getDataListFromResultSet(ShopLocationData.class),
+                world, minChunkX, maxChunkX, minChunkZ, maxChunkZ);
+    }
+
+    /**
+     * checks in the same storage task that the listing is in the frame owner's own sign shop, then creates the frame
+     *
+     * @return empty on a database error, -1 if the listing is not the owner's, else the number of frames created
+     */
+    public CompletableFuture<Optional<Integer>> createShopFrameForOwnListing(@NotNull ShopFrameData frame, int limit) {
+        return supplyAsync(() -> {
+            var listing = DatabaseUtils.executeQuery(connection, plugin, "getShopItemById.sql",
+                    DBFunctionUtils.getDataFromResultSet(ShopItemData.class), frame.itemId());
+            if (listing.isEmpty() || !listing.get().owner().equals(frame.owner()) || !listing.get().market().equals(frame.owner())) {
+                return Optional.of(-1);
+            }
+            return DatabaseUtils.executeUpdate(connection, plugin, "createShopFrame.sql",
+                    frame.frameId(), frame.world(), frame.blockX(), frame.blockY(), frame.blockZ(), frame.owner(), frame.market(), frame.itemId(),
+                    frame.owner(), limit);
+        });
+    }
+
+    public CompletableFuture<Optional<Integer>> deleteShopFrame(@NotNull UUID frameId) {
+        return DatabaseUtils.executeUpdateAsync(connection, plugin, "deleteShopFrame.sql", databaseExecutor, frameId);
+    }
+
+    public @NotNull CompletableFuture<Optional<@NotNull List<ShopFrameData>>> getShopFramesByWorld(@NotNull String world) {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getShopFramesByWorld.sql", databaseExecutor,
+                DBFunctionUtils.getDataListFromResultSet(ShopFrameData.class), world);
+    }
+
     public CompletableFuture<Optional<Integer>> updateShopLocation(
             @NotNull BlockLocationData key, @NotNull ShopLocationData value) {
         return DatabaseUtils.executeUpdateAsync(connection, plugin, "updateShopLocation.sql", databaseExecutor,
@@ -243,4 +237,90 @@ public class HmarketDatabaseManager {
         return DatabaseUtils.executeQueryAsync(connection, plugin, "getShopLocationByMarket.sql", databaseExecutor,
                 DBFunctionUtils.getDataListFromResultSet(ShopLocationData.class), marketId);
     }
-}
\ No newline at end of file
+
+    public CompletableFuture<Optional<List<UUID>>> getAllListingOwners() {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getAllListingOwners.sql", databaseExecutor,
+                (rs) -> {
+                    List<UUID> result = Lists.newArrayList();
+                    try {
+                        while (rs.next()) {
+                            var owner = rs.getString("owner");
+                            if (owner != null) result.add(MarketIdUtils.parseUUID(owner));
+                        }
+                    } catch (SQLException e) {
+                        e.printStackTrace();
+                    }
+                    return result;
+                });
+    }
+
+    public CompletableFuture<Optional<Integer>> insertVaultJournal(@NotNull String category, double amount) {
+        return DatabaseUtils.executeUpdateAsync(connection, plugin, "insertVaultJournal.sql", databaseExecutor,
+                category, amount, TimeUtils.getUnixTimeStampNow());
+    }
+
+    /**
+     * Tags every unsettled journal entry with {@code settlementId}, records the settlement and returns the tagged
+     * totals by category, in one transaction. Nothing is recorded if there is nothing to settle.
+     */
+    public CompletableFuture<Optional<Map<String, Double>>> claimVaultJournal(long settlementId) {
+        // all statements in one storage task, nothing is submitted from the storage thread
+        return supplyAsync(() -> DatabaseUtils.inTransaction(connection, () -> {
+            var claimed = DatabaseUtils.executeUpdate(connection, plugin, "claimVaultJournal.sql", settlementId);
+            if (claimed.isEmpty()) return Optional.empty();
+            Optional<Map<String, Double>> totals = DatabaseUtils.executeQuery(connection, plugin, "getVaultSettlementTotals.sql",
+                    (rs) -> {
+                        Map<String, Double> result = new HashMap<>();
+                        try {
+                            while (rs.next()) {
+                                result.put(rs.getString("category"), rs.getDouble("total"));
+                            }
+                        } catch (SQLException e) {
+                            e.printStackTrace();
+                            return null;
+                        }
+                        return result;
+                    }, settlementId);
+            if (totals.isEmpty() || totals.get().isEmpty()) return totals;
+            var sum = totals.get().values().stream().mapToDouble(Double::doubleValue).sum();
+            var recorded = DatabaseUtils.executeUpdate(connection, plugin, "insertVaultSettlement.sql",
+                    settlementId, sum, TimeUtils.getUnixTimeStampNow());
+            return recorded.isEmpty() ? Optional.empty() : totals;
+        }));
+    }
+
+    /**
+     * stores the vault balance seen right before the deposit, so a restart can tell whether the deposit happened
+     */
+    public CompletableFuture<Optional<Integer>> setVaultSettlementBalance(long settlementId, double balanceBefore) {
+        return DatabaseUtils.executeUpdateAsync(connection, plugin, "setVaultSettlementBalance.sql", databaseExecutor,
+                balanceBefore, settlementId);
+    }
+
+    /**
+     * deletes the settled journal entries and the settlement in one transaction
+     */
+    public CompletableFuture<Optional<Integer>> finishVaultSettlement(long settlementId) {
+        return supplyAsync(() -> DatabaseUtils.inTransaction(connection, () -> {
+            var deleted = DatabaseUtils.executeUpdate(connection, plugin, "finishVaultSettlement.sql", settlementId);
+            if (deleted.isEmpty()) return Optional.empty();
+            return DatabaseUtils.executeUpdate(connection, plugin, "deleteVaultSettlement.sql", settlementId).map(i -> deleted.get());
+        }));
+    }
+
+    /**
+     * releases the journal entries of a settlement that did not deposit, and deletes the settlement, in one transaction
+     */
+    public CompletableFuture<Optional<Integer>> revertVaultSettlement(long settlementId) {
+        return supplyAsync(() -> DatabaseUtils.inTransaction(connection, () -> {
+            var released = DatabaseUtils.executeUpdate(connection, plugin, "revertVaultSettlement.sql", settlementId);
+            if (released.isEmpty()) return Optional.empty();
+            return DatabaseUtils.executeUpdate(connection, plugin, "deleteVaultSettlement.sql", settlementId).map(i -> released.get());
+        }));
+    }
+
+    public CompletableFuture<Optional<List<VaultSettlementData>>> getUnfinishedVaultSettlements() {
+        return DatabaseUtils.executeQueryAsync(connection, plugin, "getUnfinishedVaultSettlements.sql", databaseExecutor,
+                DBFunctionUtils.getDataListFromResultSet(VaultSettlementData.class));
+    }
+}
@@ -0,0 +1,198 @@
+package cat.nyaa.hmarket.db;
+
+import cat.nyaa.hmarket.config.HMConfig;
+import cat.nyaa.hmarket.utils.DatabaseUtils;
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retention and compaction of both schemas of the {@link HMStorageEngine}.
+ * <p>
+ * Offline messages older than the retention age, or beyond the newest N of a player, are deleted. Free pages are
+ * returned to the file system with {@code incremental_vacuum} in small steps until the time budget is used up. That
+ * needs {@code auto_vacuum=INCREMENTAL}; switching an existing file is a full VACUUM that blocks the storage thread,
+ * so it only happens on {@link #convertToIncrementalVacuum()} and scheduled runs skip schemas in another mode.
+ */
+public class StorageMaintenance {
+    // pages released per incremental_vacuum step, small enough to check the budget often
+    private static final int VACUUM_STEP_PAGES = 64;
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+    private final JavaPlugin plugin;
+    private final HMStorageEngine storage;
+    private volatile HMConfig config;
+    private volatile @Nullable MaintenanceReport lastReport;
+
+    public StorageMaintenance(@NotNull JavaPlugin plugin, @NotNull HMStorageEngine storage, @NotNull HMConfig config) {
+        this.plugin = plugin;
+        this.storage = storage;
+        this.config = config;
+        CompletableFuture.runAsync(this::checkVacuumMode, storage.getExecutor());
+    }
+
+    private void checkVacuumMode() {
+        var conn = storage.getConnection();
+        if (conn == null) return;
+        for (String schema : List.of("main", HMStorageEngine.MESSAGE_SCHEMA)) {
+            try {
+                if (readPragma(conn, schema, "auto_vacuum") != AUTO_VACUUM_INCREMENTAL) {
+                    HMLogUtils.info("storage.vacuum-not-incremental", "file", fileName(schema),
+                            "note", "free pages are not reclaimed until /h storage-convert-vacuum is run while the server is quiet");
+                }
+            } catch (SQLException e) {
+                HMLogUtils.error("storage.vacuum-check-failed", "schema", schema, "error", e);
+            }
+        }
+    }
+
+    /**
+     * switches every schema not in incremental auto vacuum mode, a full rewrite of its file on the storage thread
+     *
+     * @return the files that were converted
+     */
+    public @NotNull CompletableFuture<List<String>> convertToIncrementalVacuum() {
+        return CompletableFuture.supplyAsync(() -> {
+            var conn = storage.getConnection();
+            if (conn == null) return List.of();
+            List<String> converted = new ArrayList<>();
+            for (String schema : List.of("main", HMStorageEngine.MESSAGE_SCHEMA)) {
+                try (var statement = conn.createStatement()) {
+                    if (readPragma(conn, schema, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL) continue;
+                    var fileName = fileName(schema);
+                    HMLogUtils.info("storage.vacuum-convert-start", "file", fileName);
+                    var startedAt = System.nanoTime();
+                    // the mode of an existing file only changes with a full vacuum
+                    statement.executeUpdate("PRAGMA " + schema + ".auto_vacuum = INCREMENTAL;");
+                    statement.executeUpdate("VACUUM " + schema + ";");
+                    HMLogUtils.info("storage.vacuum-convert", "file", fileName,
+                            "ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt));
+                    converted.add(fileName);
+                } catch (SQLException e) {
+                    HMLogUtils.error("storage.vacuum-convert-failed", "schema", schema, "error", e);
+                }
+            }
+            return converted;
+        }, storage.getExecutor());
+    }
+
+    private static @NotNull String fileName(@NotNull String schema) {
+        return schema.equals("main") ? HMStorageEngine.MARKET_DATABASE_FILE : HMStorageEngine.MESSAGE_DATABASE_FILE;
+    }
+
+    public void setConfig(@NotNull HMConfig config) {
+        this.config = config;
+    }
+
+    public boolean isStorageIdle() {
+        return storage.getMetrics().queueDepth() == 0;
+    }
+
+    public @Nullable MaintenanceReport getLastReport() {
+        return lastReport;
+    }
+
+    /**
+     * queues one maintenance run on the storage thread
+     */
+    public @NotNull CompletableFuture<MaintenanceReport> run() {
+        var startedAt = System.currentTimeMillis();
+        var connection = storage.getConnectionSupplier();
+        var executor = storage.getExecutor();
+        CompletableFuture<Integer> expired = CompletableFuture.completedFuture(0);
+        if (config.messageRetentionMaxAgeDays > 0) {
+            var cutoff = startedAt - TimeUnit.DAYS.toMillis(config.messageRetentionMaxAgeDays);
+            expired = DatabaseUtils.executeUpdateAsync(connection, plugin, "aomsg/delete_expired_messages.sql", executor, cutoff)
+                    .thenApply(result -> result.orElse(0));
+        }
+        CompletableFuture<Integer> excess = CompletableFuture.completedFuture(0);
+        if (config.messageRetentionMaxPerPlayer > 0) {
+            excess = DatabaseUtils.executeUpdateAsync(connection, plugin, "aomsg/delete_excess_messages.sql", executor,
+                            config.messageRetentionMaxPerPlayer)
+                    .thenApply(result -> result.orElse(0));
+        }
+        var expiredFuture = expired;
+        var excessFuture = excess;
+        // queued after the deletes, so the pages they free are vacuumed in the same run
+        var compaction = CompletableFuture.supplyAsync(this::compact, executor);
+        return CompletableFuture.allOf(expiredFuture, excessFuture, compaction).thenApply(v -> {
+            var report = new MaintenanceReport(startedAt, expiredFuture.join(), excessFuture.join(), compaction.join());
+            lastReport = report;
+            HMLogUtils.info("storage.maintenance", "expiredMessages", report.expiredMessages(),
+                    "excessMessages", report.excessMessages());
+            for (SchemaReport schema : report.schemas()) {
+                HMLogUtils.info("storage.maintenance.schema", "schema", schema.schema(), "incremental", schema.incremental(),
+                        "fileBytes", schema.fileBytes(), "usedBytes", schema.usedBytes(), "freePages", schema.freePages(),
+                        "releasedPages", schema.releasedPages());
+            }
+            return report;
+        });
+    }
+
+    private @NotNull List<SchemaReport> compact() {
+        var conn = storage.getConnection();
+        if (conn == null) return List.of();
+        var deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, config.storageMaintenanceVacuumBudgetMs));
+        List<SchemaReport> reports = new ArrayList<>();
+        reports.add(compact(conn, "main", deadline));
+        reports.add(compact(conn, HMStorageEngine.MESSAGE_SCHEMA, deadline));
+        return reports;
+    }
+
+    private @NotNull SchemaReport compact(@NotNull Connection conn, @NotNull String schema, long deadline) {
+        var fileName = fileName(schema);
+        long releasedPages = 0;
+        try (var statement = conn.createStatement()) {
+            // incremental_vacuum does nothing in other modes, and converting is left to the admin
+            var incremental = readPragma(conn, schema, "auto_vacuum") == AUTO_VACUUM_INCREMENTAL;
+            while (incremental && System.nanoTime() < deadline) {
+                var freePages = readPragma(conn, schema, "freelist_count");
+                if (freePages <= 0) break;
+                statement.execute("PRAGMA " + schema + ".incremental_vacuum(" + VACUUM_STEP_PAGES + ");");
+                releasedPages += Math.min(freePages, VACUUM_STEP_PAGES);
+            }
+            var pageSize = readPragma(conn, schema, "page_size");
+            return new SchemaReport(schema, incremental, fileSize(fileName), readPragma(conn, schema, "page_count") * pageSize,
+                    readPragma(conn, schema, "freelist_count"), releasedPages);
+        } catch (SQLException e) {
+            HMLogUtils.error("storage.maintenance.compact-failed", "schema", schema, "error", e);
+            return new SchemaReport(schema, false, fileSize(fileName), -1, -1, releasedPages);
+        }
+    }
+
+    private static long readPragma(@NotNull Connection conn, @NotNull String schema, @NotNull String pragma) throws SQLException {
+        try (var statement = conn.createStatement();
+             var rs = statement.executeQuery("PRAGMA " + schema + "." + pragma + ";")) {
+            return rs.next() ? rs.getLong(1) : -1;
+        }
+    }
+
+    // the database file and its write-ahead log
+    private long fileSize(@NotNull String fileName) {
+        var file = new File(plugin.getDataFolder(), fileName);
+        var wal = new File(plugin.getDataFolder(), fileName + "-wal");
+        return file.length() + wal.length();
+    }
+
+    /**
+     * @param incremental   whether the schema is in incremental auto vacuum mode, nothing is released otherwise
+     * @param fileBytes     size of the file and its write-ahead log
+     * @param usedBytes     page count times page size
+     * @param freePages     pages still on the freelist
+     * @param releasedPages pages given back in this run
+     */
+    public record SchemaReport(String schema, boolean incremental, long fileBytes, long usedBytes, long freePages, long releasedPages) {
+    }
+
+    public record MaintenanceReport(long startedAt, int expiredMessages, int excessMessages,
+                                    List<SchemaReport> schemas) {
+    }
+}
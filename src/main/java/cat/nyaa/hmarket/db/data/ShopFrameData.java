@@ -0,0 +1,35 @@
+package cat.nyaa.hmarket.db.data;
+
+import cat.nyaa.hmarket.utils.MarketIdUtils;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+public record ShopFrameData(
+        UUID frameId, // item frame entity id
+        String world,
+        int blockX,
+        int blockY,
+        int blockZ,
+        UUID owner,
+        UUID market,
+        int itemId // listing shown in the frame
+) {
+
+    @Contract("_ -> new")
+    public static @NotNull ShopFrameData fromResultSet(@NotNull ResultSet rs) throws SQLException {
+        return new ShopFrameData(
+                MarketIdUtils.parseUUID(rs.getString("frameId")),
+                rs.getString("world"),
+                rs.getInt("blockX"),
+                rs.getInt("blockY"),
+                rs.getInt("blockZ"),
+                MarketIdUtils.parseUUID(rs.getString("owner")),
+                MarketIdUtils.parseMarketId(rs.getString("market")),
+                rs.getInt("itemId")
+        );
+    }
+}
@@ -0,0 +1,30 @@
+package cat.nyaa.hmarket.db.data;
+
+import cat.nyaa.hmarket.utils.MarketIdUtils;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * the columns of a listing needed to work out when its next storage fee is due
+ */
+public record StorageFeeDueData(
+        int itemId,
+        UUID market,
+        long createdAt,
+        long updatedAt
+) {
+
+    @Contract("_ -> new")
+    public static @NotNull StorageFeeDueData fromResultSet(@NotNull ResultSet rs) throws SQLException {
+        return new StorageFeeDueData(
+                rs.getInt("itemId"),
+                MarketIdUtils.parseMarketId(rs.getString("market")),
+                rs.getLong("createdAt"),
+                rs.getLong("updatedAt")
+        );
+    }
+}
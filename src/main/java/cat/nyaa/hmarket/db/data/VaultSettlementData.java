@@ -0,0 +1,32 @@
+package cat.nyaa.hmarket.db.data;
+
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * a settlement that has claimed journal entries but is not finished
+ *
+ * @param balanceBefore system vault balance right before the deposit, null if the deposit was never attempted
+ */
+public record VaultSettlementData(
+        long settlementId,
+        double amount,
+        @Nullable Double balanceBefore,
+        long createdAt
+) {
+
+    @Contract("_ -> new")
+    public static @NotNull VaultSettlementData fromResultSet(@NotNull ResultSet rs) throws SQLException {
+        var balanceBefore = rs.getDouble("balanceBefore");
+        return new VaultSettlementData(
+                rs.getLong("settlementId"),
+                rs.getDouble("amount"),
+                rs.wasNull() ? null : balanceBefore,
+                rs.getLong("createdAt")
+        );
+    }
+}
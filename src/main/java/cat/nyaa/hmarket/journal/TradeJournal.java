@@ -0,0 +1,294 @@
+package cat.nyaa.hmarket.journal;
+
+import cat.nyaa.hmarket.utils.HMLogUtils;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only binary journal of offers, purchases, withdrawals and storage fees, one file per day.
+ * <p>
+ * Callers only encode the entry into a buffer under a short lock. Full buffers, and the current one every flush
+ * interval, are handed to a background thread that owns the files: it rotates, opens, repairs and writes, so no
+ * caller ever waits on disk I/O. A crash loses at most one flush interval; a torn last entry is cut off when the
+ * file is reopened, so entries appended after a restart stay readable.
+ */
+public class TradeJournal {
+    static final int MAGIC = 0x484D544A; // HMTJ
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 4 + 2;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // full buffers waiting for the flusher before new entries are dropped, 16 MiB
+    private static final int MAX_PENDING_BUFFERS = 64;
+    private static final int MAX_SPARE_BUFFERS = 2;
+    private final Path directory;
+    private final ZoneId zone = ZoneId.systemDefault();
+    private final ScheduledExecutorService flusher;
+    // guarded by this
+    private final ArrayDeque<Segment> pending = new ArrayDeque<>();
+    private final ArrayDeque<ByteBuffer> spare = new ArrayDeque<>();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    @Nullable
+    private LocalDate bufferDay;
+    private long nextRotationMillis = Long.MIN_VALUE;
+    private long dropped = 0;
+    private boolean closed = false;
+    // only touched by the flusher thread, and by close() once it has stopped
+    @Nullable
+    private FileChannel channel;
+    @Nullable
+    private LocalDate channelDay;
+
+    public TradeJournal(@NotNull File directory, int flushIntervalMillis) {
+        this.directory = directory.toPath();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            var thread = new Thread(runnable, "HMarket-Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+        var interval = Math.max(50, flushIntervalMillis);
+        flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public static @NotNull String fileName(@NotNull LocalDate date) {
+        return "trades-" + date + ".bin";
+    }
+
+    public void offer(@NotNull UUID owner, @NotNull UUID market, int listingId, @NotNull String item, int amount,
+                      double unitPrice, double fee) {
+        append(TradeJournalRecord.Type.OFFER, owner, TradeJournalRecord.NIL, market, listingId, item, amount, unitPrice, fee, 0);
+    }
+
+    public void buy(@NotNull UUID buyer, @NotNull UUID seller, @NotNull UUID market, int listingId, @NotNull String item,
+                    int amount, double unitPrice, double cost, double tax) {
+        append(TradeJournalRecord.Type.BUY, buyer, seller, market, listingId, item, amount, unitPrice, cost, tax);
+    }
+
+    public void withdraw(@NotNull UUID owner, @NotNull UUID market, int listingId, @NotNull String item, int amount) {
+        append(TradeJournalRecord.Type.WITHDRAW, owner, TradeJournalRecord.NIL, market, listingId, item, amount, 0, 0, 0);
+    }
+
+    public void storageFee(@NotNull UUID owner, @NotNull UUID market, int listingId, double unitPrice, double fee, boolean paid) {
+        append(paid ? TradeJournalRecord.Type.STORAGE_FEE : TradeJournalRecord.Type.STORAGE_FEE_UNPAID,
+                owner, TradeJournalRecord.NIL, market, listingId, "", 0, unitPrice, fee, 0);
+    }
+
+    private void append(@NotNull TradeJournalRecord.Type type, @NotNull UUID actor, @NotNull UUID other,
+                        @NotNull UUID market, int listingId, @NotNull String item, int amount,
+                        double unitPrice, double money, double tax) {
+        var itemBytes = item.getBytes(StandardCharsets.UTF_8);
+        var size = 4 + TradeJournalRecord.FIXED_SIZE + itemBytes.length;
+        var now = System.currentTimeMillis();
+        synchronized (this) {
+            if (closed) return;
+            if (now >= nextRotationMillis) {
+                // entries of the previous day stay in their own segment, whenever the flusher gets to them
+                seal(true);
+                var today = LocalDate.ofInstant(Instant.ofEpochMilli(now), zone);
+                bufferDay = today;
+                nextRotationMillis = today.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            }
+            if (buffer.remaining() < size) {
+                if (!seal(false)) {
+                    dropped++;
+                    return;
+                }
+                flusher.execute(this::flush);
+            }
+            TradeJournalRecord.write(buffer, type, now, actor, other, market, listingId, itemBytes, amount, unitPrice, money, tax);
+        }
+    }
+
+    /**
+     * queues the current buffer for the flusher and starts a fresh one, must hold the lock
+     *
+     * @return false if the flusher is too far behind and {@code force} is not set
+     */
+    private boolean seal(boolean force) {
+        if (buffer.position() == 0) return true;
+        if (!force && pending.size() >= MAX_PENDING_BUFFERS) return false;
+        pending.add(new Segment(Objects.requireNonNull(bufferDay), buffer.flip()));
+        var next = spare.poll();
+        buffer = next != null ? next : ByteBuffer.allocateDirect(BUFFER_SIZE);
+        return true;
+    }
+
+    /**
+     * writes all queued entries, runs on the flusher thread
+     */
+    private void flush() {
+        List<Segment> segments;
+        long droppedEntries;
+        synchronized (this) {
+            seal(true);
+            if (pending.isEmpty() && dropped == 0) return;
+            segments = new ArrayList<>(pending);
+            pending.clear();
+            droppedEntries = dropped;
+            dropped = 0;
+        }
+        if (droppedEntries > 0) {
+            HMLogUtils.audit("journal.entries-dropped", "count", droppedEntries, "pendingLimit", MAX_PENDING_BUFFERS);
+        }
+        for (Segment segment : segments) {
+            try {
+                write(segment);
+            } catch (IOException e) {
+                HMLogUtils.error("journal.flush-failed", "day", segment.day(), "bytes", segment.data().remaining(),
+                        "error", e.getMessage());
+            }
+            segment.data().clear();
+            synchronized (this) {
+                if (spare.size() < MAX_SPARE_BUFFERS) spare.add(segment.data());
+            }
+        }
+    }
+
+    private void write(@NotNull Segment segment) throws IOException {
+        if (channel == null || !segment.day().equals(channelDay)) {
+            closeChannel();
+            Files.createDirectories(directory);
+            // a failed open drops this segment only, the next one tries again
+            channel = open(directory.resolve(fileName(segment.day())));
+            channelDay = segment.day();
+        }
+        var data = segment.data();
+        while (data.hasRemaining()) channel.write(data);
+    }
+
+    private void closeChannel() throws IOException {
+        if (channel == null) return;
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            channel = null;
+            channelDay = null;
+        }
+    }
+
+    /**
+     * opens {@code file} positioned after its last complete entry. A torn tail is truncated; a file without a valid
+     * header is moved aside and a new one started, since appending behind either would leave the new entries unreadable
+     */
+    private @NotNull FileChannel open(@NotNull Path file) throws IOException {
+        var channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            var size = channel.size();
+            if (size > 0) {
+                var end = completeLength(channel, size);
+                if (end < 0) {
+                    channel.close();
+                    var aside = file.resolveSibling(file.getFileName() + ".corrupt-" + System.currentTimeMillis());
+                    Files.move(file, aside);
+                    HMLogUtils.warning("journal.moved-invalid-file", "file", file.getFileName(), "movedTo", aside.getFileName(),
+                            "bytes", size);
+                    channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                    size = 0;
+                } else if (end < size) {
+                    channel.truncate(end);
+                    HMLogUtils.warning("journal.truncated-torn-entry", "file", file.getFileName(), "kept", end,
+                            "dropped", size - end);
+                    size = end;
+                }
+            }
+            if (size == 0) {
+                var header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putShort(VERSION).flip();
+                while (header.hasRemaining()) channel.write(header, HEADER_SIZE - header.remaining());
+                size = HEADER_SIZE;
+            }
+            channel.position(size);
+            return channel;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * walks the entries the same way {@link TradeJournalReader} does
+     *
+     * @return offset just past the last complete entry, or -1 if the header is missing or not ours
+     */
+    private static long completeLength(@NotNull FileChannel channel, long size) throws IOException {
+        if (size < HEADER_SIZE) return -1;
+        var header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != MAGIC || header.getShort(4) > VERSION) return -1;
+        var position = (long) HEADER_SIZE;
+        var entry = ByteBuffer.allocate(4 + TradeJournalRecord.FIXED_SIZE + 0xFFFF);
+        while (size - position >= 4) {
+            entry.clear().limit(4);
+            readFully(channel, entry, position);
+            var length = entry.getInt(0);
+            if (length < TradeJournalRecord.FIXED_SIZE || length > entry.capacity() - 4 || length > size - position - 4) {
+                break;
+            }
+            entry.limit(4 + length);
+            readFully(channel, entry, position + 4);
+            try {
+                TradeJournalRecord.read(entry.flip());
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                break;
+            }
+            position += 4 + length;
+        }
+        return position;
+    }
+
+    private static void readFully(@NotNull FileChannel channel, @NotNull ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            var read = channel.read(buffer, position);
+            if (read < 0) throw new EOFException();
+            position += read;
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            if (!flusher.awaitTermination(10, TimeUnit.SECONDS)) {
+                // still writing, flushing here as well would race it on the channel
+                HMLogUtils.error("journal.close-timeout");
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        flush();
+        try {
+            closeChannel();
+        } catch (IOException e) {
+            HMLogUtils.error("journal.close-failed", "error", e.getMessage());
+        }
+    }
+
+    private record Segment(@NotNull LocalDate day, @NotNull ByteBuffer data) {
+    }
+}
@@ -0,0 +1,151 @@
+package cat.nyaa.hmarket.journal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.BufferUnderflowException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Command line reader for trade journal files, runs without a server:
+ * <pre>
+ * java -cp HMarket.jar cat.nyaa.hmarket.journal.TradeJournalReader dump trades-2024-01-31.bin
+ * java -cp HMarket.jar cat.nyaa.hmarket.journal.TradeJournalReader summary trades-2024-01-*.bin
+ * </pre>
+ * {@code dump} prints every entry as a CSV line, {@code summary} prints totals per entry type, item and market.
+ */
+public class TradeJournalReader {
+    private static final int TOP_ROWS = 20;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !(args[0].equals("dump") || args[0].equals("summary"))) {
+            System.err.println("usage: TradeJournalReader <dump|summary> <file>...");
+            System.exit(2);
+            return;
+        }
+        var files = Arrays.copyOfRange(args, 1, args.length);
+        if (args[0].equals("dump")) {
+            System.out.println("type,time,actor,other,market,listing,item,amount,unit_price,money,tax");
+            for (String file : files) {
+                read(Path.of(file), TradeJournalReader::printCsv);
+            }
+        } else {
+            var summary = new Summary();
+            for (String file : files) {
+                read(Path.of(file), summary::add);
+            }
+            summary.print(System.out);
+        }
+    }
+
+    /**
+     * maps the file and passes every complete entry to {@code consumer}
+     *
+     * @return number of entries read
+     */
+    public static long read(@NotNull Path file, @NotNull Consumer<TradeJournalRecord> consumer) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < TradeJournal.HEADER_SIZE || buffer.getInt() != TradeJournal.MAGIC) {
+                throw new IOException(file + " is not a trade journal");
+            }
+            var version = buffer.getShort();
+            if (version > TradeJournal.VERSION) {
+                throw new IOException(file + " has journal version " + version + ", this reader supports " + TradeJournal.VERSION);
+            }
+            long count = 0;
+            while (buffer.remaining() >= 4) {
+                var length = buffer.getInt(buffer.position());
+                if (length < TradeJournalRecord.FIXED_SIZE || length > buffer.remaining() - 4) {
+                    System.err.println(file + ": incomplete entry at byte " + buffer.position() + ", stopping");
+                    break;
+                }
+                try {
+                    consumer.accept(TradeJournalRecord.read(buffer));
+                } catch (BufferUnderflowException | IllegalArgumentException e) {
+                    System.err.println(file + ": corrupt entry at byte " + buffer.position() + ", stopping");
+                    break;
+                }
+                count++;
+            }
+            return count;
+        }
+    }
+
+    private static void printCsv(@NotNull TradeJournalRecord record) {
+        System.out.println(String.join(",",
+                record.type().name(), Instant.ofEpochMilli(record.time()).toString(),
+                record.actor().toString(), record.other().toString(), record.market().toString(),
+                Integer.toString(record.listingId()), record.item(), Integer.toString(record.amount()),
+                Double.toString(record.unitPrice()), Double.toString(record.money()), Double.toString(record.tax())));
+    }
+
+    private static class Summary {
+        private final EnumMap<TradeJournalRecord.Type, Total> byType = new EnumMap<>(TradeJournalRecord.Type.class);
+        private final Map<String, Total> soldByItem = new HashMap<>();
+        private final Map<UUID, Total> soldByMarket = new HashMap<>();
+        private final Set<UUID> buyers = new HashSet<>();
+        private final Set<UUID> sellers = new HashSet<>();
+        private long first = Long.MAX_VALUE;
+        private long last = Long.MIN_VALUE;
+
+        void add(@NotNull TradeJournalRecord record) {
+            first = Math.min(first, record.time());
+            last = Math.max(last, record.time());
+            byType.computeIfAbsent(record.type(), k -> new Total()).add(record);
+            if (record.type() == TradeJournalRecord.Type.BUY) {
+                soldByItem.computeIfAbsent(record.item(), k -> new Total()).add(record);
+                soldByMarket.computeIfAbsent(record.market(), k -> new Total()).add(record);
+                buyers.add(record.actor());
+                sellers.add(record.other());
+            }
+        }
+
+        void print(@NotNull PrintStream out) {
+            if (byType.isEmpty()) {
+                out.println("no entries");
+                return;
+            }
+            out.printf("%s .. %s, %d buyers, %d sellers%n", Instant.ofEpochMilli(first), Instant.ofEpochMilli(last),
+                    buyers.size(), sellers.size());
+            out.println();
+            out.printf("%-20s %10s %12s %16s %14s%n", "type", "entries", "items", "money", "tax");
+            byType.forEach((type, total) -> out.printf("%-20s %10d %12d %16.2f %14.2f%n",
+                    type, total.entries, total.amount, total.money, total.tax));
+            out.println();
+            out.println("top items by revenue");
+            printTop(out, soldByItem);
+            out.println();
+            out.println("top markets by revenue");
+            printTop(out, soldByMarket);
+        }
+
+        private static <K> void printTop(@NotNull PrintStream out, @NotNull Map<K, Total> totals) {
+            totals.entrySet().stream()
+                    .sorted(Comparator.comparingDouble((Map.Entry<K, Total> e) -> e.getValue().money).reversed())
+                    .limit(TOP_ROWS)
+                    .forEach(e -> out.printf("  %-36s %8d sales %10d items %16.2f%n",
+                            e.getKey(), e.getValue().entries, e.getValue().amount, e.getValue().money));
+        }
+    }
+
+    private static class Total {
+        private long entries;
+        private long amount;
+        private double money;
+        private double tax;
+
+        void add(@NotNull TradeJournalRecord record) {
+            entries++;
+            amount += record.amount();
+            money += record.money();
+            tax += record.tax();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package cat.nyaa.hmarket.journal;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * One entry of the trade journal.
+ * <p>
+ * On disk every entry is an int length followed by that many bytes of payload, so readers skip fields appended by
+ * later versions. Ids that do not apply are written as the nil UUID, amounts that do not apply as 0.
+ *
+ * @param type      what happened
+ * @param time      unix time in milliseconds
+ * @param actor     player who offered, bought, withdrew or paid the fee
+ * @param other     seller of a purchase, nil otherwise
+ * @param market    market of the listing
+ * @param listingId listing id
+ * @param item      material name of the item, empty if unknown
+ * @param amount    number of items
+ * @param unitPrice price per item
+ * @param money     fee of an offer or storage charge, cost of a purchase
+ * @param tax       tax paid on a purchase
+ */
+public record TradeJournalRecord(@NotNull Type type, long time, @NotNull UUID actor, @NotNull UUID other,
+                                 @NotNull UUID market, int listingId, @NotNull String item, int amount,
+                                 double unitPrice, double money, double tax) {
+    public static final UUID NIL = new UUID(0, 0);
+    // type, time, 3 ids, listing id, item length, amount, unit price, money, tax
+    static final int FIXED_SIZE = 1 + 8 + 16 * 3 + 4 + 2 + 4 + 8 * 3;
+
+    public enum Type {
+        OFFER,
+        BUY,
+        WITHDRAW,
+        STORAGE_FEE,
+        STORAGE_FEE_UNPAID;
+
+        private static final Type[] VALUES = values();
+
+        static @NotNull Type of(int ordinal) {
+            if (ordinal < 0 || ordinal >= VALUES.length) {
+                throw new IllegalArgumentException("unknown journal entry type " + ordinal);
+            }
+            return VALUES[ordinal];
+        }
+    }
+
+    /**
+     * writes length and payload
+     */
+    static void write(@NotNull ByteBuffer buffer, @NotNull Type type, long time, @NotNull UUID actor, @NotNull UUID other,
+                      @NotNull UUID market, int listingId, byte @NotNull [] item, int amount,
+                      double unitPrice, double money, double tax) {
+        buffer.putInt(FIXED_SIZE + item.length);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(time);
+        putUUID(buffer, actor);
+        putUUID(buffer, other);
+        putUUID(buffer, market);
+        buffer.putInt(listingId);
+        buffer.putShort((short) item.length);
+        buffer.put(item);
+        buffer.putInt(amount);
+        buffer.putDouble(unitPrice);
+        buffer.putDouble(money);
+        buffer.putDouble(tax);
+    }
+
+    /**
+     * reads one entry, the buffer must be positioned at its length field
+     */
+    static @NotNull TradeJournalRecord read(@NotNull ByteBuffer buffer) {
+        var length = buffer.getInt();
+        var end = buffer.position() + length;
+        var type = Type.of(buffer.get());
+        var time = buffer.getLong();
+        var actor = getUUID(buffer);
+        var other = getUUID(buffer);
+        var market = getUUID(buffer);
+        var listingId = buffer.getInt();
+        var itemBytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(itemBytes);
+        var amount = buffer.getInt();
+        var unitPrice = buffer.getDouble();
+        var money = buffer.getDouble();
+        var tax = buffer.getDouble();
+        buffer.position(end);
+        return new TradeJournalRecord(type, time, actor, other, market, listingId,
+                new String(itemBytes, StandardCharsets.UTF_8), amount, unitPrice, money, tax);
+    }
+
+    private static void putUUID(@NotNull ByteBuffer buffer, @NotNull UUID uuid) {
+        buffer.putLong(uuid.getMostSignificantBits());
+        buffer.putLong(uuid.getLeastSignificantBits());
+    }
+
+    private static @NotNull UUID getUUID(@NotNull ByteBuffer buffer) {
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+}
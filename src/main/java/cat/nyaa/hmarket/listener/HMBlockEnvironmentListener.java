@@ -19,6 +19,7 @@ import org.bukkit.event.world.StructureGrowEvent;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.Nullable;
+import java.util.List;
 import java.util.Optional;
 
 public class HMBlockEnvironmentListener implements Listener {
@@ -33,43 +34,48 @@ public class HMBlockEnvironmentListener implements Listener {
         });
     }
 
+    private static void removeProtectedBlocks(List<Block> blocks) {
+        getShopLocation().ifPresentOrElse(shopLocation -> shopLocation.removeProtectedBlocks(blocks), () -> {
+            HMLogUtils.logWarning("HMarket is not loaded, can not break block");
+            blocks.clear();
+        });
+    }
+
+    private static boolean isAnyBlockProtected(List<Block> blocks) {
+        return getShopLocation().map(shopLocation -> shopLocation.isAnyBlockProtected(blocks)).orElseGet(() -> {
+            HMLogUtils.logWarning("HMarket is not loaded, can not break block");
+            return !blocks.isEmpty();
+        });
+    }
+
     @EventHandler(priority = EventPriority.HIGH)
     public void onEntityExplode(@NotNull EntityExplodeEvent event) {
-        event.blockList().removeIf(block -> isBlockProtected(block, null));
+        removeProtectedBlocks(event.blockList());
     }
 
     @EventHandler(priority = EventPriority.HIGH)
     public void onBlockExplode(@NotNull BlockExplodeEvent event) {
-        event.blockList().removeIf(block -> isBlockProtected(block, null));
+        removeProtectedBlocks(event.blockList());
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
     public void onStructureGrow(@NotNull StructureGrowEvent event) {
-        for (BlockState blockstate : event.getBlocks()) {
-            if (isBlockProtected(blockstate.getBlock(), null)) {
-                event.setCancelled(true);
-                return;
-            }
+        if (isAnyBlockProtected(event.getBlocks().stream().map(BlockState::getBlock).toList())) {
+            event.setCancelled(true);
         }
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
     public void onPistonExtend(@NotNull BlockPistonExtendEvent event) {
-        for (Block block : event.getBlocks()) {
-            if (isBlockProtected(block, null)) {
-                event.setCancelled(true);
-                return;
-            }
+        if (isAnyBlockProtected(event.getBlocks())) {
+            event.setCancelled(true);
         }
     }
 
     @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
     public void onPistonRetract(@NotNull BlockPistonRetractEvent event) {
-        for (Block block : event.getBlocks()) {
-            if (isBlockProtected(block, null)) {
-                event.setCancelled(true);
-                return;
-            }
+        if (isAnyBlockProtected(event.getBlocks())) {
+            event.setCancelled(true);
         }
     }
 
@@ -0,0 +1,50 @@
+package cat.nyaa.hmarket.listener;
+
+import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.api.IMarketShopFrame;
+import org.bukkit.entity.ItemFrame;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.entity.EntityDamageEvent;
+import org.bukkit.event.hanging.HangingBreakEvent;
+import org.bukkit.event.player.PlayerInteractEntityEvent;
+import org.bukkit.event.world.EntitiesLoadEvent;
+import org.bukkit.inventory.EquipmentSlot;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Optional;
+
+public class HMFrameShopListener implements Listener {
+    private static Optional<IMarketShopFrame> getShopFrame() {
+        return Optional.ofNullable(Hmarket.getAPI() != null ? Hmarket.getAPI().getShopFrameApi() : null);
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onInteractFrame(@NotNull PlayerInteractEntityEvent event) {
+        if (!(event.getRightClicked() instanceof ItemFrame frame)) return;
+        if (event.getHand() != EquipmentSlot.HAND) {
+            getShopFrame().filter(shopFrame -> shopFrame.isFrameProtected(frame)).ifPresent(shopFrame -> event.setCancelled(true));
+            return;
+        }
+        getShopFrame().ifPresent(shopFrame -> shopFrame.onFrameInteract(frame, event.getPlayer(), event));
+    }
+
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onFrameBreak(@NotNull HangingBreakEvent event) {
+        if (!(event.getEntity() instanceof ItemFrame frame)) return;
+        getShopFrame().filter(shopFrame -> shopFrame.isFrameProtected(frame)).ifPresent(shopFrame -> event.setCancelled(true));
+    }
+
+    // covers punching the shown item out of the frame as well as projectiles and explosions
+    @EventHandler(priority = EventPriority.HIGH, ignoreCancelled = true)
+    public void onFrameDamage(@NotNull EntityDamageEvent event) {
+        if (!(event.getEntity() instanceof ItemFrame frame)) return;
+        getShopFrame().filter(shopFrame -> shopFrame.isFrameProtected(frame)).ifPresent(shopFrame -> event.setCancelled(true));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onEntitiesLoad(@NotNull EntitiesLoadEvent event) {
+        getShopFrame().ifPresent(shopFrame -> shopFrame.onEntitiesLoad(event.getChunk()));
+    }
+}
@@ -15,7 +15,10 @@ public class HMListenerManager {
     public HMListenerManager(Hmarket plugin) {
         this.register(new HMSignShopListener(), plugin);
         this.register(new HMBlockEnvironmentListener(), plugin);
+        this.register(new HMWorldListener(), plugin);
+        this.register(new HMFrameShopListener(), plugin);
         this.register(plugin.getViewServer(), plugin);
+        this.register(plugin.getPlayerNameCache(), plugin);
     }
 
     public <T extends Listener> T register(T listener, @NotNull Hmarket plugin) {
@@ -0,0 +1,41 @@
+package cat.nyaa.hmarket.listener;
+
+import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.api.IMarketShopFrame;
+import cat.nyaa.hmarket.api.IMarketShopLocation;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.WorldLoadEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Optional;
+
+public class HMWorldListener implements Listener {
+    private static Optional<IMarketShopLocation> getShopLocation() {
+        return Optional.ofNullable(Hmarket.getAPI() != null ? Hmarket.getAPI().getShopLocationApi() : null);
+    }
+
+    private static Optional<IMarketShopFrame> getShopFrame() {
+        return Optional.ofNullable(Hmarket.getAPI() != null ? Hmarket.getAPI().getShopFrameApi() : null);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldLoad(@NotNull WorldLoadEvent event) {
+        getShopLocation().ifPresent(shopLocation -> shopLocation.onWorldLoad(event.getWorld()));
+        getShopFrame().ifPresent(shopFrame -> shopFrame.onWorldLoad(event.getWorld()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onWorldUnload(@NotNull WorldUnloadEvent event) {
+        getShopLocation().ifPresent(shopLocation -> shopLocation.onWorldUnload(event.getWorld()));
+        getShopFrame().ifPresent(shopFrame -> shopFrame.onWorldUnload(event.getWorld()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(@NotNull ChunkLoadEvent event) {
+        getShopLocation().ifPresent(shopLocation -> shopLocation.onChunkLoad(event.getChunk()));
+    }
+}
@@ -1,14 +1,15 @@
 package cat.nyaa.hmarket.message;
 
 import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.db.HMStorageEngine;
 import cat.nyaa.hmarket.message.data.AoMessageData;
 import cat.nyaa.hmarket.utils.ChatComponentUtils;
 import cat.nyaa.hmarket.utils.DBFunctionUtils;
 import cat.nyaa.hmarket.utils.DatabaseUtils;
-import cat.nyaa.hmarket.utils.TaskUtils;
 import cat.nyaa.ukit.api.UKitAPI;
-import com.google.common.collect.Lists;
 import com.google.common.primitives.Ints;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
@@ -21,38 +22,44 @@ import org.bukkit.plugin.java.JavaPlugin;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.Connection;
-import java.sql.SQLException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.concurrent.*;
-import java.util.function.Function;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static cat.nyaa.hmarket.message.data.AoMessageData.MessageType.JSON;
 import static cat.nyaa.hmarket.message.data.AoMessageData.MessageType.STRING_MESSAGE;
 
 // from https://github.com/NyaaCat/aolib
 public class AoMessage {
-    private static final LinkedBlockingQueue<Runnable> databaseExecutorQueue = new LinkedBlockingQueue<>();
-    public static final ExecutorService databaseExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, databaseExecutorQueue);
+    // offline messages are queued and written in one transaction per flush
+    private static final int INSERT_BATCH_SIZE = 256;
     @Nullable
     private static AoMessage instance;
     private final JavaPlugin plugin;
     private final SimpleDateFormat simpleDateFormat;
     private final MessageListener listener;
-    private Connection jdbcConnection;
+    private final MessageDeliveryScheduler deliveryScheduler;
+    private final HMStorageEngine storage;
+    private final Executor databaseExecutor;
     private boolean ukitMessageEnabled = false;
+    private final ConcurrentLinkedQueue<PendingMessage> pendingMessages = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
 
-    public AoMessage(JavaPlugin plugin) {
+    public AoMessage(JavaPlugin plugin, HMStorageEngine storage) {
         if (instance != null) {
             throw new IllegalStateException("AoMessage already exists");
         }
         ukitMessageEnabled = Bukkit.getPluginManager().getPlugin("Ukit") != null;
         this.plugin = plugin;
+        this.storage = storage;
+        this.databaseExecutor = storage.getExecutor();
         initDB();
         this.simpleDateFormat = new SimpleDateFormat("'['yy/MM/dd HH:mm Z']'");
         simpleDateFormat.setTimeZone(TimeZone.getDefault());
-        this.listener = new MessageListener(plugin);
+        this.deliveryScheduler = new MessageDeliveryScheduler(this);
+        this.deliveryScheduler.runTaskTimer(plugin, 1, 1);
+        this.listener = new MessageListener(plugin, deliveryScheduler);
         instance = this;
     }
 
@@ -65,12 +72,13 @@ public class AoMessage {
     }
 
     public void destructor() {
-        if (this.jdbcConnection != null) {
-            try {
-                this.jdbcConnection.close();
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
+        deliveryScheduler.cancel();
+        deliveryScheduler.acknowledge();
+        // write what is still queued before the connection goes away
+        try {
+            CompletableFuture.runAsync(this::flushPendingMessages, databaseExecutor).get();
+        } catch (InterruptedException | ExecutionException | RejectedExecutionException e) {
+            e.printStackTrace();
         }
         HandlerList.unregisterAll(listener);
         instance = null;
@@ -119,101 +127,97 @@ public class AoMessage {
 
 
     private CompletableFuture<Boolean> newOfflineMessage(UUID playerId, AoMessageData.MessageType messageType, String messageStr) {
-        var result = getConnection(
-                (conn) ->
-                        DatabaseUtils.executeUpdateAsync(
-                                        conn,
-                                        plugin,
-                                        "aomsg/new_offline_message.sql",
-                                        databaseExecutor,
-                                        messageStr,
-                                        messageType.toString(),
-                                        playerId.toString(),
-                                        System.currentTimeMillis()
-                                )
-                                .thenApply(optInt -> optInt.isPresent() && optInt.get() > 0)
-        );
-        if (result.isEmpty()) {
-            return CompletableFuture.completedFuture(false);
-        } else {
-            return result.get();
+        var pending = new PendingMessage(messageStr, messageType, playerId, System.currentTimeMillis(), new CompletableFuture<>());
+        pendingMessages.add(pending);
+        scheduleFlush();
+        return pending.result();
+    }
+
+    /**
+     * submits a flush of the queued messages unless one is waiting for the executor already, messages queued
+     * meanwhile join that flush. While the storage queue is full the messages stay queued and
+     * {@link MessageDeliveryScheduler} retries.
+     */
+    void scheduleFlush() {
+        if (pendingMessages.isEmpty() || !flushScheduled.compareAndSet(false, true)) return;
+        try {
+            if (!storage.tryExecute(this::flushPendingMessages)) {
+                flushScheduled.set(false);
+            }
+        } catch (RejectedExecutionException e) {
+            flushScheduled.set(false);
+            PendingMessage pending;
+            while ((pending = pendingMessages.poll()) != null) {
+                pending.result().complete(false);
+            }
         }
     }
 
-    private CompletableFuture<List<AoMessageData>> getPlayerOfflineMessageList(UUID playerId) {
-        var result = getConnection(
-                (conn) ->
-                        DatabaseUtils.executeQueryAsync(
-                                        conn,
-                                        plugin,
-                                        "aomsg/get_player_message_data.sql",
-                                        databaseExecutor,
-                                        DBFunctionUtils.getDataListFromResultSet(AoMessageData.class),
-                                        playerId.toString()
-                                )
-                                .thenApply(optList -> optList.orElse(List.of()))
-        );
-        if (result.isEmpty()) {
-            return CompletableFuture.completedFuture(List.of());
-        } else {
-            return result.get();
+    boolean isStorageSaturated() {
+        return storage.isSaturated();
+    }
+
+    private void flushPendingMessages() {//databaseExecutor
+        flushScheduled.set(false);
+        while (!pendingMessages.isEmpty()) {
+            List<PendingMessage> batch = new ArrayList<>(Math.min(INSERT_BATCH_SIZE, pendingMessages.size()));
+            PendingMessage pending;
+            while (batch.size() < INSERT_BATCH_SIZE && (pending = pendingMessages.poll()) != null) {
+                batch.add(pending);
+            }
+            var rows = batch.stream()
+                    .map(message -> new Object[]{message.msg(), message.msgType().toString(), message.player().toString(), message.createdAt()})
+                    .toList();
+            var conn = storage.getConnection();
+            var inserted = conn != null && DatabaseUtils.executeBatch(conn, plugin, "aomsg/new_offline_message.sql", rows).isPresent();
+            if (!inserted) {
+                plugin.getLogger().warning("[AO MSG]Failed to save " + batch.size() + " offline messages");
+            }
+            batch.forEach(message -> message.result().complete(inserted));
         }
     }
 
+    /**
+     * @param cursors    player -> msg_id after which to read
+     * @param maxPerPlayer page size of each player
+     * @return messages of all players in one query, ordered by player and msg_id
+     */
+    CompletableFuture<List<AoMessageData>> getOfflineMessages(@NotNull Map<UUID, Integer> cursors, int maxPerPlayer) {
+        var players = new JsonArray();
+        cursors.forEach((playerId, cursor) -> {
+            var player = new JsonObject();
+            player.addProperty("player", playerId.toString());
+            player.addProperty("cursor", cursor);
+            players.add(player);
+        });
+        return DatabaseUtils.executeQueryAsync(
+                        storage.getConnectionSupplier(),
+                        plugin,
+                        "aomsg/get_players_message_data.sql",
+                        databaseExecutor,
+                        DBFunctionUtils.getDataListFromResultSet(AoMessageData.class),
+                        players.toString(),
+                        maxPerPlayer
+                )
+                .thenApply(optList -> optList.orElse(List.of()));
+    }
+
     private CompletableFuture<Optional<int[]>> deleteOfflineMessage(int... id) {
         return deleteOfflineMessage(Ints.asList(id));
     }
 
-    private CompletableFuture<Optional<int[]>> deleteOfflineMessage(@NotNull List<Integer> id) {
+    CompletableFuture<Optional<int[]>> deleteOfflineMessage(@NotNull List<Integer> id) {
         if (id.isEmpty())
             return CompletableFuture.completedFuture(Optional.empty());
-        Optional<CompletableFuture<Optional<int[]>>> result = getConnection((conn) -> CompletableFuture.supplyAsync(() -> {
-            try (var ps = conn.prepareStatement("DELETE FROM ao_msg WHERE msg_id=?;")) {
-
-                var autoCommit = conn.getAutoCommit();
-                if (autoCommit) {
-                    conn.setAutoCommit(false);
-                }
-                ////////////////////////////////////////////////////////////////////////////////////////////////
-                for (int i : id) {
-                    ps.setInt(1, i);
-                    ps.addBatch();
-                }
-                var data = Optional.of(ps.executeBatch());
-                ////////////////////////////////////////////////////////////////////////////////////////////////
-                conn.commit();
-                if (autoCommit) conn.setAutoCommit(true);
-
-                return data;
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-            return Optional.empty();
-        }, databaseExecutor));
-        if (result.isEmpty()) {
-            return CompletableFuture.completedFuture(Optional.empty());
-        } else {
-            return result.get();
-        }
-
+        List<Object[]> rows = id.stream().map(msgId -> new Object[]{msgId}).toList();
+        return CompletableFuture.supplyAsync(() -> {
+            var conn = storage.getConnection();
+            if (conn == null) return Optional.empty();
+            return DatabaseUtils.executeBatch(conn, plugin, "aomsg/delete_offline_message.sql", rows);
+        }, databaseExecutor);
     }
 
-    private List<Integer> sendMessageData(List<AoMessageData> messageData) {//async
-        if (messageData.isEmpty()) return List.of();
-        var resultOptional = TaskUtils.async.getSync(() -> {
-            List<Integer> result = Lists.newArrayList();
-            for (AoMessageData data : messageData) {
-                if (sendMessageData0(data)) {
-                    result.add(data.msgId());
-                }
-            }
-            return result;
-        });
-        if (resultOptional.isEmpty()) return List.of();
-        return resultOptional.get();
-    }
-
-    private boolean sendMessageData0(@NotNull AoMessageData messageData) {//sync
+    boolean sendMessageData0(@NotNull AoMessageData messageData) {//sync
         Player player = Bukkit.getPlayer(messageData.player());
         if (player == null || !player.isOnline()) return false;
         var aft = Component.text(simpleDateFormat.format(new Date(messageData.createdAt())))
@@ -233,56 +237,17 @@ public class AoMessage {
     }
 
     public void initDB() {
-        getConnection(conn -> DatabaseUtils.executeUpdateAsync(conn, plugin, "aomsg/init.sql", databaseExecutor));
-    }
-
-    private <T> Optional<T> getConnection(Function<Connection, T> function) {
-        var optConn = getJdbcConnection();
-        if (optConn.isEmpty()) return Optional.empty();
-        return optConn.map(function);
+        // the message tables live in the attached message schema
+        storage.runScript("aomsg/init.sql");
+        // migration for tables created before the index existed, runs after init on the same executor
+        storage.runScript("aomsg/add_player_index.sql");
     }
 
-    private Optional<Connection> getJdbcConnection() {
-        try {
-            if (this.jdbcConnection != null && !this.jdbcConnection.isClosed())
-                return Optional.of(this.jdbcConnection);
-        } catch (SQLException e) {
-            if (jdbcConnection != null) {
-                try {
-                    jdbcConnection.close();
-                } catch (SQLException ignored) {
-                }
-            }
-            e.printStackTrace();
-        }
-        Optional<Connection> conn = Optional.empty();
-        try {
-            conn = DatabaseUtils.newSqliteJdbcConnection(plugin, "ao_message.db").get();
-        } catch (InterruptedException | ExecutionException e) {
-            e.printStackTrace();
-        }
-        if (conn.isEmpty()) {
-            plugin.getLogger().warning("[AO MSG]Failed to create jdbc connection");
-        } else {
-            this.jdbcConnection = conn.get();
-            try {
-                this.jdbcConnection.createStatement().executeUpdate("PRAGMA synchronous = NORMAL;");
-            } catch (SQLException e) {
-                e.printStackTrace();
-            }
-            return Optional.of(this.jdbcConnection);
-        }
-        return Optional.empty();
+    JavaPlugin getPlugin() {
+        return plugin;
     }
 
-    void AfterPlayerJoin(UUID playerId) {
-        getPlayerOfflineMessageList(playerId)
-                .thenAcceptAsync(list -> {
-                    try {
-                        deleteOfflineMessage(sendMessageData(list)).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        e.printStackTrace();
-                    }
-                });
+    private record PendingMessage(String msg, AoMessageData.MessageType msgType, UUID player, long createdAt,
+                                  CompletableFuture<Boolean> result) {
     }
 }
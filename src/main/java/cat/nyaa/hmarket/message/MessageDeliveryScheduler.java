@@ -0,0 +1,120 @@
+package cat.nyaa.hmarket.message;
+
+import cat.nyaa.hmarket.message.data.AoMessageData;
+import cat.nyaa.hmarket.utils.TaskUtils;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitRunnable;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+
+/**
+ * Delivers offline messages to joining players.
+ * <p>
+ * Joins are collected and fetched together, one query for up to {@link #MAX_PLAYERS_PER_FETCH} players every
+ * {@link #FETCH_INTERVAL_TICKS}. Fetched messages are sent at most {@link #MESSAGES_PER_TICK} per tick and the
+ * delivered ones are deleted in one batch per fetch interval. Runs on the main thread every tick.
+ */
+public class MessageDeliveryScheduler extends BukkitRunnable {
+    // players are served this long after they join, when the join burst has settled
+    private static final int JOIN_DELAY_TICKS = 100;
+    private static final int FETCH_INTERVAL_TICKS = 20;
+    private static final int MAX_PLAYERS_PER_FETCH = 64;
+    // a backlog is fetched page by page, so a busy seller is not flooded at once
+    private static final int PAGE_SIZE_PER_PLAYER = 50;
+    private static final int MESSAGES_PER_TICK = 20;
+    private final AoMessage aoMessage;
+    // player -> tick from which the player may be fetched, in join order
+    private final LinkedHashMap<UUID, Integer> waiting = new LinkedHashMap<>();
+    // player -> last delivered msg_id, players with more pages left
+    private final Map<UUID, Integer> cursors = new HashMap<>();
+    private final Set<UUID> fetching = new HashSet<>();
+    private final ArrayDeque<AoMessageData> outbox = new ArrayDeque<>();
+    private final List<Integer> delivered = new ArrayList<>();
+    private int ticks = 0;
+
+    MessageDeliveryScheduler(@NotNull AoMessage aoMessage) {
+        this.aoMessage = aoMessage;
+    }
+
+    void onPlayerJoin(@NotNull UUID playerId) {
+        cursors.remove(playerId);
+        waiting.remove(playerId);
+        waiting.put(playerId, Bukkit.getCurrentTick() + JOIN_DELAY_TICKS);
+    }
+
+    void onPlayerQuit(@NotNull UUID playerId) {
+        waiting.remove(playerId);
+        cursors.remove(playerId);
+        // messages already fetched for the player stay in the database and are fetched again on the next join
+        outbox.removeIf(message -> message.player().equals(playerId));
+    }
+
+    @Override
+    public void run() {
+        sendBudgeted();
+        if (++ticks % FETCH_INTERVAL_TICKS != 0) return;
+        acknowledge();
+        aoMessage.scheduleFlush();
+        fetch();
+    }
+
+    private void sendBudgeted() {
+        for (int i = 0; i < MESSAGES_PER_TICK && !outbox.isEmpty(); i++) {
+            var message = outbox.poll();
+            if (aoMessage.sendMessageData0(message)) {
+                delivered.add(message.msgId());
+            }
+        }
+    }
+
+    /**
+     * deletes the messages delivered since the last call, in one transaction
+     */
+    void acknowledge() {
+        if (delivered.isEmpty()) return;
+        aoMessage.deleteOfflineMessage(List.copyOf(delivered));
+        delivered.clear();
+    }
+
+    private void fetch() {
+        // don't fetch more while the last fetch is still being sent
+        if (!fetching.isEmpty() || !outbox.isEmpty()) return;
+        // a join storm waits for the storage queue to drain instead of growing it
+        if (aoMessage.isStorageSaturated()) return;
+        var now = Bukkit.getCurrentTick();
+        Map<UUID, Integer> batch = new LinkedHashMap<>();
+        var iterator = waiting.entrySet().iterator();
+        while (iterator.hasNext() && batch.size() < MAX_PLAYERS_PER_FETCH) {
+            var entry = iterator.next();
+            if (entry.getValue() > now) continue;
+            iterator.remove();
+            var player = Bukkit.getPlayer(entry.getKey());
+            if (player == null || !player.isOnline()) continue;
+            batch.put(entry.getKey(), cursors.getOrDefault(entry.getKey(), 0));
+        }
+        if (batch.isEmpty()) return;
+        fetching.addAll(batch.keySet());
+        aoMessage.getOfflineMessages(batch, PAGE_SIZE_PER_PLAYER).thenAccept(messages ->
+                TaskUtils.async.runSyncMethod(() -> onFetched(batch.keySet(), messages)));
+    }
+
+    private void onFetched(@NotNull Set<UUID> players, @NotNull List<AoMessageData> messages) {
+        fetching.removeAll(players);
+        if (isCancelled()) return;
+        Map<UUID, Integer> fetchedCount = new HashMap<>();
+        for (AoMessageData message : messages) {
+            fetchedCount.merge(message.player(), 1, Integer::sum);
+            cursors.put(message.player(), message.msgId());
+            outbox.add(message);
+        }
+        for (UUID playerId : players) {
+            if (fetchedCount.getOrDefault(playerId, 0) >= PAGE_SIZE_PER_PLAYER) {
+                // more pages left, served again once this page is sent
+                waiting.putIfAbsent(playerId, Bukkit.getCurrentTick());
+            } else {
+                cursors.remove(playerId);
+            }
+        }
+    }
+}
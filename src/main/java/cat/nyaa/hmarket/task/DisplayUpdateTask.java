@@ -0,0 +1,14 @@
+package cat.nyaa.hmarket.task;
+
+import cat.nyaa.hmarket.Hmarket;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class DisplayUpdateTask extends BukkitRunnable {
+    @Override
+    public void run() {
+        var api = Hmarket.getAPI();
+        if (api == null) return;
+        api.getShopLocationApi().flushSignDisplays();
+        api.getShopFrameApi().flushDisplays();
+    }
+}
@@ -1,16 +1,74 @@
 package cat.nyaa.hmarket.task;
 
 import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.config.ConfigReloadListener;
+import cat.nyaa.hmarket.config.HMConfig;
 import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
 
-public class HMTaskManager {
-    private final BukkitTask updateItemTask;
+public class HMTaskManager implements ConfigReloadListener {
+    private final Hmarket plugin;
+    private final BukkitTask mainThreadWorkTask;
+    private BukkitTask storageFeeTask;
+    private final BukkitTask displayUpdateTask;
+    private final BukkitTask saleDigestTask;
+    private BukkitTask storageMaintenanceTask;
+    private BukkitTask vaultSettleTask;
 
-    public HMTaskManager(Hmarket plugin) {
-        this.updateItemTask = new UpdateItemTask(3600 * 20).runTaskTimer(plugin, 3600 * 20, 3600 * 20);
+    public HMTaskManager(Hmarket plugin, HMConfig config) {
+        this.plugin = plugin;
+        this.mainThreadWorkTask = new MainThreadWorkTask(plugin.getWorkQueue()).runTaskTimer(plugin, 1, 1);
+        this.storageFeeTask = startStorageFeeTask(config);
+        this.displayUpdateTask = new DisplayUpdateTask().runTaskTimer(plugin, 1, 1);
+        this.saleDigestTask = new SaleDigestTask().runTaskTimer(plugin, 20, 20);
+        this.storageMaintenanceTask = startStorageMaintenanceTask(config);
+        this.vaultSettleTask = startVaultSettleTask(config);
+    }
+
+    private BukkitTask startStorageFeeTask(HMConfig config) {
+        var storageFeeInterval = Math.max(1, config.storageFeeCheckIntervalTicks);
+        return new StorageFeeTask(Math.max(1, config.storageFeeMaxListingsPerCheck))
+                .runTaskTimer(plugin, storageFeeInterval, storageFeeInterval);
+    }
+
+    private BukkitTask startStorageMaintenanceTask(HMConfig config) {
+        var maintenanceInterval = Math.max(1, config.storageMaintenanceIntervalMinutes) * 60 * 20L;
+        return new StorageMaintenanceTask(plugin.getStorageMaintenance(), config.storageMaintenanceMaxOnlinePlayers)
+                .runTaskTimer(plugin, maintenanceInterval, maintenanceInterval);
+    }
+
+    private BukkitTask startVaultSettleTask(HMConfig config) {
+        var settleInterval = Math.max(1, config.vaultSettleIntervalSeconds) * 20L;
+        return new VaultSettleTask().runTaskTimer(plugin, settleInterval, settleInterval);
+    }
+
+    /**
+     * restarts only the timers whose settings changed, the others keep their phase
+     */
+    @Override
+    public void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        if (previous.storageFeeCheckIntervalTicks != current.storageFeeCheckIntervalTicks
+                || previous.storageFeeMaxListingsPerCheck != current.storageFeeMaxListingsPerCheck) {
+            this.storageFeeTask.cancel();
+            this.storageFeeTask = startStorageFeeTask(current);
+        }
+        if (previous.storageMaintenanceIntervalMinutes != current.storageMaintenanceIntervalMinutes
+                || previous.storageMaintenanceMaxOnlinePlayers != current.storageMaintenanceMaxOnlinePlayers) {
+            this.storageMaintenanceTask.cancel();
+            this.storageMaintenanceTask = startStorageMaintenanceTask(current);
+        }
+        if (previous.vaultSettleIntervalSeconds != current.vaultSettleIntervalSeconds) {
+            this.vaultSettleTask.cancel();
+            this.vaultSettleTask = startVaultSettleTask(current);
+        }
     }
 
     public void destructor() {
-        this.updateItemTask.cancel();
+        this.mainThreadWorkTask.cancel();
+        this.storageFeeTask.cancel();
+        this.displayUpdateTask.cancel();
+        this.saleDigestTask.cancel();
+        this.storageMaintenanceTask.cancel();
+        this.vaultSettleTask.cancel();
     }
 }
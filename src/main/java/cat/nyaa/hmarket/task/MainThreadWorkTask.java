@@ -0,0 +1,17 @@
+package cat.nyaa.hmarket.task;
+
+import cat.nyaa.hmarket.utils.MainThreadWorkQueue;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class MainThreadWorkTask extends BukkitRunnable {
+    private final MainThreadWorkQueue workQueue;
+
+    public MainThreadWorkTask(MainThreadWorkQueue workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    @Override
+    public void run() {
+        workQueue.drain();
+    }
+}
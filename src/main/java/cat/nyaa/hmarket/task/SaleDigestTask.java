@@ -0,0 +1,13 @@
+package cat.nyaa.hmarket.task;
+
+import cat.nyaa.hmarket.Hmarket;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class SaleDigestTask extends BukkitRunnable {
+    @Override
+    public void run() {
+        var api = Hmarket.getAPI();
+        if (api == null) return;
+        api.getMarketAPI().flushSaleDigests(false);
+    }
+}
@@ -0,0 +1,19 @@
+package cat.nyaa.hmarket.task;
+
+import cat.nyaa.hmarket.Hmarket;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class StorageFeeTask extends BukkitRunnable {
+    private final int maxListings;
+
+    public StorageFeeTask(int maxListings) {
+        this.maxListings = maxListings;
+    }
+
+    @Override
+    public void run() {
+        var api = Hmarket.getAPI();
+        if (api == null) return;
+        api.getMarketAPI().processStorageFees(maxListings);
+    }
+}
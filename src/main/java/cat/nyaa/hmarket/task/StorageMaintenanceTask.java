@@ -0,0 +1,29 @@
+package cat.nyaa.hmarket.task;
+
+import cat.nyaa.hmarket.db.StorageMaintenance;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StorageMaintenanceTask extends BukkitRunnable {
+    private final StorageMaintenance maintenance;
+    private final int maxOnlinePlayers;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public StorageMaintenanceTask(StorageMaintenance maintenance, int maxOnlinePlayers) {
+        this.maintenance = maintenance;
+        this.maxOnlinePlayers = maxOnlinePlayers;
+    }
+
+    @Override
+    public void run() {
+        // only while the server is quiet, tried again on the next interval otherwise
+        if (Bukkit.getOnlinePlayers().size() > maxOnlinePlayers || !maintenance.isStorageIdle()) return;
+        if (!running.compareAndSet(false, true)) return;
+        maintenance.run().whenComplete((report, throwable) -> {
+            if (throwable != null) throwable.printStackTrace();
+            running.set(false);
+        });
+    }
+}
@@ -1,56 +1,97 @@
 package cat.nyaa.hmarket.ui;
 
 import cat.nyaa.hmarket.HMI18n;
+import cat.nyaa.hmarket.config.ConfigReloadListener;
+import cat.nyaa.hmarket.config.HMConfig;
+import cat.nyaa.hmarket.ui.canvas.IShopViewCanvas;
+import cat.nyaa.hmarket.ui.canvas.InventoryShopViewCanvas;
+import cat.nyaa.hmarket.ui.canvas.PacketShopViewSupport;
+import cat.nyaa.hmarket.utils.PlayerNameUtils;
 import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.inventory.InventoryAction;
 import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryDragEvent;
+import org.bukkit.event.inventory.InventoryOpenEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import org.bukkit.plugin.java.JavaPlugin;
-import org.bukkit.scheduler.BukkitTask;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 
-public class HMarketViewServer implements Listener {
+public class HMarketViewServer implements Listener, ConfigReloadListener {
     private final JavaPlugin pluginInstance;
 
     private final Map<UUID, HmarketShopView> viewMap = new HashMap<>();
-    private final Set<UUID> interactedPlayers = new HashSet<>();
+    private final ShopPurchaseQueue purchaseQueue;
+    @Nullable
+    private PacketShopViewSupport packetViewSupport;
 
-    private final BukkitTask resetTask;
-
-    public HMarketViewServer(JavaPlugin pluginInstance) {
+    public HMarketViewServer(JavaPlugin pluginInstance, HMConfig config) {
         this.pluginInstance = pluginInstance;
-        //clear interactedPlayers set every tick to prevent clicks caused by accident
-        resetTask = Bukkit.getScheduler().runTaskTimer(pluginInstance, interactedPlayers::clear, 0L, 1L);
+        this.purchaseQueue = new ShopPurchaseQueue(config);
+        if (config.uiPacketMode) {
+            if (Bukkit.getPluginManager().isPluginEnabled("ProtocolLib")) {
+                try {
+                    packetViewSupport = new PacketShopViewSupport(pluginInstance, this);
+                } catch (Throwable e) {
+                    pluginInstance.getLogger().warning("Packet mode is not supported on this server, falling back to inventory views: " + e);
+                }
+            } else {
+                pluginInstance.getLogger().warning("Packet mode requires ProtocolLib, falling back to inventory views.");
+            }
+        }
+    }
+
+    @Override
+    public void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current) {
+        purchaseQueue.reconfigure(current);
+        if (previous.uiPacketMode != current.uiPacketMode) {
+            pluginInstance.getLogger().warning("ui.packet-mode takes effect after /h reload full");
+        }
+    }
+
+    public ShopPurchaseQueue getPurchaseQueue() {
+        return purchaseQueue;
     }
 
     public void openViewForPlayer(Player player) {
-        player.openInventory(viewMap.get(player.getUniqueId()).getUi());
+        viewMap.get(player.getUniqueId()).getUi().open();
     }
 
     public void createViewForPlayer(Player player, UUID marketId, Component title) {
-        viewMap.put(player.getUniqueId(), new HmarketShopView(player, marketId, title));
+        viewMap.put(player.getUniqueId(), new HmarketShopView(player, marketId, createCanvas(player, title), purchaseQueue));
+    }
+
+    private IShopViewCanvas createCanvas(Player player, Component title) {
+        if (packetViewSupport != null) {
+            return packetViewSupport.createCanvas(player, title);
+        }
+        return new InventoryShopViewCanvas(player, title);
     }
 
     public void destrutor() {
         viewMap.values().forEach(t -> t.getUi().close());
         viewMap.clear();
-        resetTask.cancel();
+        purchaseQueue.clear();
+        if (packetViewSupport != null) {
+            packetViewSupport.destructor();
+            packetViewSupport = null;
+        }
     }
 
     public Component getUserShopTitle(UUID playerUniqueID) {
-        var playerName = Bukkit.getOfflinePlayer(playerUniqueID);
+        var playerName = PlayerNameUtils.getPlayerNameById(playerUniqueID);
         return HMI18n.format("info.ui.title.shop.user", playerName);
     }
 
     public Component getSystemShopTitle(UUID playerUniqueID) {
-        var playerName = Bukkit.getOfflinePlayer(playerUniqueID);
         return HMI18n.format("info.ui.title.shop.system");
     }
 
@@ -59,16 +100,15 @@ public class HMarketViewServer implements Listener {
         if (event.getClickedInventory() == null
                 || !viewMap.containsKey(event.getWhoClicked().getUniqueId()))
             return;
-        if (event.getInventory() != viewMap.get(event.getWhoClicked().getUniqueId()).getUi())
+        if (!viewMap.get(event.getWhoClicked().getUniqueId()).getUi().isBackedBy(event.getInventory()))
             return;
-        if (event.getClickedInventory() == viewMap.get(event.getWhoClicked().getUniqueId()).getUi()) {
+        if (viewMap.get(event.getWhoClicked().getUniqueId()).getUi().isBackedBy(event.getClickedInventory())) {
             event.setCancelled(true);
             var item = event.getCurrentItem();
             if (item == null || item.getType().isAir()) return;
-            if (interactedPlayers.contains(event.getWhoClicked().getUniqueId()))
-                return; //can interact with ui only once per tick
+            if (!purchaseQueue.tryClick(event.getWhoClicked().getUniqueId()))
+                return; //debounce clicks caused by accident
             viewMap.get(event.getWhoClicked().getUniqueId()).onClick((Player) event.getWhoClicked(), event.getAction(), item, event.getSlot());
-            interactedPlayers.add(event.getWhoClicked().getUniqueId());
         }
         if (event.getClickedInventory() == event.getWhoClicked().getInventory()) {
             if (event.getAction() == InventoryAction.MOVE_TO_OTHER_INVENTORY) {
@@ -77,10 +117,36 @@ public class HMarketViewServer implements Listener {
         }
     }
 
+    /**
+     * called on the main thread for clicks on a packet-mode window
+     */
+    public void onVirtualClick(Player player, int slot, InventoryAction action) {
+        var view = viewMap.get(player.getUniqueId());
+        if (view == null || !view.getUi().isVirtual()) return;
+        try {
+            if (slot < 0 || slot >= IShopViewCanvas.SIZE || action == InventoryAction.NOTHING) return;
+            var item = view.getUi().getItem(slot);
+            if (item == null || item.getType().isAir()) return;
+            if (!purchaseQueue.tryClick(player.getUniqueId()))
+                return; //debounce clicks caused by accident
+            view.onClick(player, action, item, slot);
+        } finally {
+            // the client has already applied the click locally
+            view.getUi().resync();
+        }
+    }
+
+    public void onVirtualClose(Player player) {
+        var view = viewMap.get(player.getUniqueId());
+        if (view != null && view.getUi().isVirtual()) {
+            viewMap.remove(player.getUniqueId());
+        }
+    }
+
     @EventHandler
     public void onInventoryDrag(InventoryDragEvent event) {
         if (viewMap.containsKey(event.getWhoClicked().getUniqueId())
-                && event.getInventory() == viewMap.get(event.getWhoClicked().getUniqueId()).getUi())
+                && viewMap.get(event.getWhoClicked().getUniqueId()).getUi().isBackedBy(event.getInventory()))
             if (event.getNewItems().keySet().stream().anyMatch(t -> t < 54))
                 event.setCancelled(true);
     }
@@ -94,10 +160,19 @@ public class HMarketViewServer implements Listener {
 //
 //    }
 
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onOpenInventory(InventoryOpenEvent event) {
+        // a real inventory replaces the virtual window on the client
+        var view = viewMap.get(event.getPlayer().getUniqueId());
+        if (view != null && view.getUi().isVirtual()) {
+            viewMap.remove(event.getPlayer().getUniqueId());
+        }
+    }
+
     @EventHandler
     public void onCloseInventory(InventoryCloseEvent event) {
         if (viewMap.containsKey(event.getPlayer().getUniqueId()))
-            if (event.getInventory() == viewMap.get(event.getPlayer().getUniqueId()).getUi()) {
+            if (viewMap.get(event.getPlayer().getUniqueId()).getUi().isBackedBy(event.getInventory())) {
                 viewMap.remove(event.getPlayer().getUniqueId());
             }
     }
@@ -105,6 +180,7 @@ public class HMarketViewServer implements Listener {
     @EventHandler
     public void onPlayerQuit(PlayerQuitEvent event) {
         viewMap.remove(event.getPlayer().getUniqueId());
+        purchaseQueue.remove(event.getPlayer().getUniqueId());
     }
 
 }
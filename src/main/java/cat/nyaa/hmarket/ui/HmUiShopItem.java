@@ -55,7 +55,8 @@ public class HmUiShopItem {
     private void onBuy(Player player, int amount) {
         var hMarketAPI = Hmarket.getAPI();
         if (hMarketAPI == null) return;
-        hMarketAPI.getMarketAPI().commandBuy(player, itemData.market(), itemData.itemId(), amount);
+        Hmarket.getInstance().getViewServer().getPurchaseQueue().submit(player.getUniqueId(), itemData.itemId(),
+                () -> hMarketAPI.getMarketAPI().commandBuy(player, itemData.market(), itemData.itemId(), amount));
     }
 
 }
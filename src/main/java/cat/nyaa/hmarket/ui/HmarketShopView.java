@@ -4,13 +4,12 @@ import cat.nyaa.hmarket.HMI18n;
 import cat.nyaa.hmarket.Hmarket;
 import cat.nyaa.hmarket.api.IMarketAPI;
 import cat.nyaa.hmarket.api.data.MarketBuyResult;
+import cat.nyaa.hmarket.ui.canvas.IShopViewCanvas;
 import cat.nyaa.hmarket.ui.data.ShopItemDataUtils;
-import net.kyori.adventure.text.Component;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.event.inventory.InventoryAction;
-import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
@@ -94,17 +93,19 @@ public class HmarketShopView {
     }
 
     private final IMarketAPI api;
-    private final Inventory ui;
+    private final IShopViewCanvas ui;
+    private final ShopPurchaseQueue purchaseQueue;
     private final Player viewOwner;
     private final List<ItemStack> items = new ArrayList<>();
     private final UUID viewShopID;
     private int currentPage = 1;
 
 
-    public HmarketShopView(Player viewOwner, UUID shopUniqueID, Component title) {
+    public HmarketShopView(Player viewOwner, UUID shopUniqueID, IShopViewCanvas canvas, ShopPurchaseQueue purchaseQueue) {
         this.viewOwner = viewOwner;
         api = Hmarket.getAPI().getMarketAPI();
-        ui = Bukkit.createInventory(null, 6 * 9, title);
+        ui = canvas;
+        this.purchaseQueue = purchaseQueue;
         viewShopID = shopUniqueID;
         reloadShopItems(viewShopID);
     }
@@ -125,6 +126,7 @@ public class HmarketShopView {
     private void resetUI() {
         ui.clear();
         ui.setItem(22, iconLoading);
+        ui.flush();
     }
 
     private boolean hasNextPage() {
@@ -166,51 +168,59 @@ public class HmarketShopView {
             };
             if (amount == -1)
                 return;
+            final int itemId = ShopItemDataUtils.getMarketItemIDFromItemStack(itemStack);
+            // queued purchases may finish after the page has changed
+            final int itemIndex = slot + (currentPage - 1) * 45;
+            var accepted = purchaseQueue.submit(player.getUniqueId(), itemId, () ->
+                    api.buy(player, viewShopID, itemId, amount).whenComplete((result, throwable) -> {
+                        if (throwable != null) {
+                            closeUiIfErrorOccurred(throwable instanceof Exception e ? e : new ExecutionException(throwable));
+                            return;
+                        }
+                        onBuyResult(result, itemStack, itemIndex, amount);
+                    })
+            );
+            if (!accepted)
+                return;
             ui.setItem(slot, iconPending);
-            Bukkit.getScheduler().runTaskAsynchronously(Hmarket.getInstance(), () -> {
-                MarketBuyResult result;
-                try {
-                    result = api.buy(player, viewShopID, ShopItemDataUtils.getMarketItemIDFromItemStack(itemStack), amount).get();
-                } catch (InterruptedException | ExecutionException e) {
-                    closeUiIfErrorOccurred(e);
-                    return;
+            ui.flush();
+        }
+    }
+
+    private void onBuyResult(MarketBuyResult result, ItemStack itemStack, int itemIndex, int amount) {
+        switch (result.status()) {
+            case WITHDRAW_SUCCESS, SUCCESS -> {
+                if (amount == itemStack.getAmount()) {
+                    setItem(itemIndex, result.status() == WITHDRAW_SUCCESS ? iconWithdrawn : iconPurchased);
+                } else {
+                    itemStack.setAmount(itemStack.getAmount() - amount);
+                    setItem(itemIndex, itemStack);
                 }
-                switch (result.status()) {
-                    case WITHDRAW_SUCCESS, SUCCESS -> {
-                        if (amount == itemStack.getAmount()) {
-                            setItemInCurrentPage(slot, result.status() == WITHDRAW_SUCCESS ? iconWithdrawn : iconPurchased);
-                        } else {
-                            itemStack.setAmount(itemStack.getAmount() - amount);
-                            setItemInCurrentPage(slot, itemStack);
-                        }
-                    }
-                    case OUT_OF_STOCK, ITEM_NOT_FOUND -> {
-                        setItemInCurrentPage(slot, iconNotAvail);
-                    }
-                    case NOT_ENOUGH_MONEY, TASK_FAILED, TRANSACTION_ERROR, WRONG_MARKET, CANNOT_BUY_ITEM -> {
-                        var icon = iconError.clone();
-                        if (result.status() == NOT_ENOUGH_MONEY) {
-                            icon.lore(List.of(HMI18n.format("info.ui.market.not_enough_money")));
-                        } else {
-                            icon.lore(List.of(HMI18n.format("info.ui.element.action_needed_description", result.status())));
-                        }
-                        setItemInCurrentPage(slot, icon);
-                    }
+            }
+            case OUT_OF_STOCK, ITEM_NOT_FOUND -> {
+                setItem(itemIndex, iconNotAvail);
+            }
+            case NOT_ENOUGH_MONEY, TASK_FAILED, TRANSACTION_ERROR, WRONG_MARKET, CANNOT_BUY_ITEM -> {
+                var icon = iconError.clone();
+                if (result.status() == NOT_ENOUGH_MONEY) {
+                    icon.lore(List.of(HMI18n.format("info.ui.market.not_enough_money")));
+                } else {
+                    icon.lore(List.of(HMI18n.format("info.ui.element.action_needed_description", result.status())));
                 }
-                renderPage(currentPage);
-            });
+                setItem(itemIndex, icon);
+            }
         }
+        renderPage(currentPage);
     }
 
-    private void setItemInCurrentPage(int slot, ItemStack itemStack) {
-        items.set(slot + (currentPage - 1) * 45, itemStack);
+    private void setItem(int itemIndex, ItemStack itemStack) {
+        if (itemIndex < 0 || itemIndex >= items.size()) return;
+        items.set(itemIndex, itemStack);
     }
 
     private void closeUiIfErrorOccurred(Exception exception) {
         exception.printStackTrace();
-        if (this.viewOwner.getOpenInventory().getTopInventory() == ui) {
-            this.viewOwner.closeInventory();
-        }
+        ui.close();
         this.viewOwner.sendMessage(HMI18n.format("info.ui.market.internal_error_occurred", exception.toString()));
     }
 
@@ -226,19 +236,23 @@ public class HmarketShopView {
             ui.setItem(53, iconNextPage);
 
         if (items.isEmpty()) {
-            ui.addItem(iconEmptyStore);
+            ui.setItem(0, iconEmptyStore);
         } else {
             for (int i = 0; i < 45; i++) {
                 int index = i + (page - 1) * 45;
                 if (index >= items.size()) {
                     break;
                 }
-                ui.setItem(i, items.get(index));
+                var item = items.get(index);
+                // a page rendered again while a purchase runs keeps the listing greyed out
+                var itemId = ShopItemDataUtils.getMarketItemIDFromItemStack(item);
+                ui.setItem(i, itemId >= 0 && purchaseQueue.isPending(viewOwner.getUniqueId(), itemId) ? iconPending : item);
             }
         }
+        ui.flush();
     }
 
-    public Inventory getUi() {
+    public IShopViewCanvas getUi() {
         return ui;
     }
 
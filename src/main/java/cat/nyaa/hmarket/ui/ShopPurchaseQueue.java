@@ -0,0 +1,133 @@
+package cat.nyaa.hmarket.ui;
+
+import cat.nyaa.hmarket.config.HMConfig;
+import org.bukkit.Bukkit;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Per-player click debounce and purchase queue for shop views.
+ * <p>
+ * Clicks are throttled by comparing server tick numbers, purchases of a listing that is already queued or
+ * in flight are coalesced, and at most {@code maxInFlight} purchases per player run at once.
+ */
+public class ShopPurchaseQueue {
+    private final Map<UUID, PlayerState> states = new ConcurrentHashMap<>();
+    private volatile int debounceTicks;
+    private volatile int maxInFlight;
+    private volatile int maxQueued;
+
+    public ShopPurchaseQueue(@NotNull HMConfig config) {
+        reconfigure(config);
+    }
+
+    /**
+     * new limits apply to the next click or purchase, queued purchases are kept
+     */
+    public void reconfigure(@NotNull HMConfig config) {
+        this.debounceTicks = Math.max(0, config.uiClickDebounceTicks);
+        this.maxInFlight = Math.max(1, config.uiPurchaseMaxInFlight);
+        this.maxQueued = Math.max(0, config.uiPurchaseMaxQueued);
+    }
+
+    /**
+     * @return true if the click is accepted, false if it arrives within the debounce window of the last one
+     */
+    public boolean tryClick(@NotNull UUID playerId) {
+        var state = states.computeIfAbsent(playerId, k -> new PlayerState());
+        var now = Bukkit.getCurrentTick();
+        synchronized (state) {
+            if (state.lastClickTick != Integer.MIN_VALUE && now - state.lastClickTick < debounceTicks) {
+                return false;
+            }
+            state.lastClickTick = now;
+            return true;
+        }
+    }
+
+    /**
+     * @param playerId player id
+     * @param itemId   listing id, used to coalesce duplicate clicks
+     * @param purchase starts the purchase, called once a slot is free
+     * @return false if the listing is already pending or the queue is full
+     */
+    public boolean submit(@NotNull UUID playerId, int itemId, @NotNull Supplier<CompletableFuture<?>> purchase) {
+        var state = states.computeIfAbsent(playerId, k -> new PlayerState());
+        var request = new PurchaseRequest(itemId, purchase);
+        synchronized (state) {
+            if (state.pendingItems.contains(itemId)) return false;
+            if (state.inFlight >= maxInFlight) {
+                if (state.queued.size() >= maxQueued) return false;
+                state.pendingItems.add(itemId);
+                state.queued.add(request);
+                return true;
+            }
+            state.pendingItems.add(itemId);
+            state.inFlight++;
+        }
+        start(state, request);
+        return true;
+    }
+
+    public boolean isPending(@NotNull UUID playerId, int itemId) {
+        var state = states.get(playerId);
+        if (state == null) return false;
+        synchronized (state) {
+            return state.pendingItems.contains(itemId);
+        }
+    }
+
+    public void remove(@NotNull UUID playerId) {
+        var state = states.remove(playerId);
+        if (state == null) return;
+        synchronized (state) {
+            state.queued.forEach(request -> state.pendingItems.remove(request.itemId()));
+            state.queued.clear();
+        }
+    }
+
+    public void clear() {
+        states.keySet().forEach(this::remove);
+    }
+
+    private void start(@NotNull PlayerState state, @NotNull PurchaseRequest request) {
+        CompletableFuture<?> future;
+        try {
+            future = request.purchase().get();
+        } catch (Exception e) {
+            e.printStackTrace();
+            future = CompletableFuture.completedFuture(null);
+        }
+        future.whenComplete((result, throwable) -> {
+            PurchaseRequest next;
+            synchronized (state) {
+                state.pendingItems.remove(request.itemId());
+                next = state.queued.poll();
+                if (next == null) {
+                    state.inFlight--;
+                }
+            }
+            if (next != null) {
+                start(state, next);
+            }
+        });
+    }
+
+    private static class PlayerState {
+        private final ArrayDeque<PurchaseRequest> queued = new ArrayDeque<>();
+        private final Set<Integer> pendingItems = new HashSet<>();
+        private int lastClickTick = Integer.MIN_VALUE;
+        private int inFlight = 0;
+    }
+
+    private record PurchaseRequest(int itemId, Supplier<CompletableFuture<?>> purchase) {
+    }
+}
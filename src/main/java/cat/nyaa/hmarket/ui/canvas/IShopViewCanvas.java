@@ -0,0 +1,37 @@
+package cat.nyaa.hmarket.ui.canvas;
+
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The 6 * 9 surface a shop view renders into.
+ * Changes made through {@link #setItem(int, ItemStack)} and {@link #clear()} become visible after {@link #flush()}.
+ */
+public interface IShopViewCanvas {
+    int SIZE = 6 * 9;
+
+    void clear();
+
+    void setItem(int slot, @Nullable ItemStack itemStack);
+
+    @Nullable ItemStack getItem(int slot);
+
+    void flush();
+
+    /**
+     * re-send the whole canvas after the client may have changed it on its own (e.g. predicted a click)
+     */
+    void resync();
+
+    void open();
+
+    void close();
+
+    /**
+     * @return true if this canvas has no server-side inventory behind it
+     */
+    boolean isVirtual();
+
+    boolean isBackedBy(@Nullable Inventory inventory);
+}
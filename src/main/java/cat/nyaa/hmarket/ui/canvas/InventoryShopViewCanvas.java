@@ -0,0 +1,66 @@
+package cat.nyaa.hmarket.ui.canvas;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+public class InventoryShopViewCanvas implements IShopViewCanvas {
+    private final Player viewer;
+    private final Inventory ui;
+
+    public InventoryShopViewCanvas(@NotNull Player viewer, @NotNull Component title) {
+        this.viewer = viewer;
+        this.ui = Bukkit.createInventory(null, SIZE, title);
+    }
+
+    @Override
+    public void clear() {
+        ui.clear();
+    }
+
+    @Override
+    public void setItem(int slot, @Nullable ItemStack itemStack) {
+        ui.setItem(slot, itemStack);
+    }
+
+    @Override
+    public @Nullable ItemStack getItem(int slot) {
+        return ui.getItem(slot);
+    }
+
+    @Override
+    public void flush() {
+        // changes to a server-side inventory are synchronized by the server
+    }
+
+    @Override
+    public void resync() {
+        // the server cancels and corrects clicks on its own inventories
+    }
+
+    @Override
+    public void open() {
+        viewer.openInventory(ui);
+    }
+
+    @Override
+    public void close() {
+        if (viewer.getOpenInventory().getTopInventory() == ui) {
+            viewer.closeInventory();
+        }
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return false;
+    }
+
+    @Override
+    public boolean isBackedBy(@Nullable Inventory inventory) {
+        return inventory == ui;
+    }
+}
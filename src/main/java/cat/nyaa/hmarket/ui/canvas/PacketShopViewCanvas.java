@@ -0,0 +1,103 @@
+package cat.nyaa.hmarket.ui.canvas;
+
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A canvas that only exists on the client: contents are sent as window packets and no {@link Inventory} is created.
+ */
+public class PacketShopViewCanvas implements IShopViewCanvas {
+    // above this many changed slots a single window content packet is cheaper than slot updates
+    private static final int FULL_UPDATE_THRESHOLD = 8;
+    private final PacketShopViewSupport support;
+    private final Player viewer;
+    private final Component title;
+    private final ItemStack[] contents = new ItemStack[SIZE];
+    private final BitSet dirty = new BitSet(SIZE);
+    private int stateId = 0;
+    private boolean opened = false;
+
+    PacketShopViewCanvas(@NotNull PacketShopViewSupport support, @NotNull Player viewer, @NotNull Component title) {
+        this.support = support;
+        this.viewer = viewer;
+        this.title = title;
+    }
+
+    @Override
+    public synchronized void clear() {
+        Arrays.fill(contents, null);
+        dirty.set(0, SIZE);
+    }
+
+    @Override
+    public synchronized void setItem(int slot, @Nullable ItemStack itemStack) {
+        if (slot < 0 || slot >= SIZE) return;
+        contents[slot] = itemStack;
+        dirty.set(slot);
+    }
+
+    @Override
+    public synchronized @Nullable ItemStack getItem(int slot) {
+        if (slot < 0 || slot >= SIZE) return null;
+        return contents[slot];
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (!opened || dirty.isEmpty()) return;
+        if (dirty.cardinality() > FULL_UPDATE_THRESHOLD) {
+            support.sendContents(viewer, nextStateId(), contents);
+        } else {
+            for (int slot = dirty.nextSetBit(0); slot >= 0; slot = dirty.nextSetBit(slot + 1)) {
+                support.sendSlot(viewer, nextStateId(), slot, contents[slot]);
+            }
+        }
+        dirty.clear();
+    }
+
+    @Override
+    public synchronized void resync() {
+        if (!opened) return;
+        // also resets the cursor the client thinks it is holding
+        support.sendContents(viewer, nextStateId(), contents);
+        dirty.clear();
+        viewer.updateInventory();
+    }
+
+    @Override
+    public synchronized void open() {
+        opened = true;
+        support.sendOpen(viewer, title);
+        support.sendContents(viewer, nextStateId(), contents);
+        dirty.clear();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (!opened) return;
+        opened = false;
+        support.sendClose(viewer);
+    }
+
+    @Override
+    public boolean isVirtual() {
+        return true;
+    }
+
+    @Override
+    public boolean isBackedBy(@Nullable Inventory inventory) {
+        return false;
+    }
+
+    private int nextStateId() {
+        stateId = (stateId + 1) & 0x7fff;
+        return stateId;
+    }
+}
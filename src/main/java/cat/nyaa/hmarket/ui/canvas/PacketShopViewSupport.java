@@ -0,0 +1,139 @@
+package cat.nyaa.hmarket.ui.canvas;
+
+import cat.nyaa.hmarket.ui.HMarketViewServer;
+import cat.nyaa.hmarket.utils.ChatComponentUtils;
+import cat.nyaa.hmarket.utils.MainThreadWorkQueue;
+import cat.nyaa.hmarket.utils.TaskUtils;
+import com.comphenix.protocol.PacketType;
+import com.comphenix.protocol.ProtocolLibrary;
+import com.comphenix.protocol.ProtocolManager;
+import com.comphenix.protocol.events.ListenerPriority;
+import com.comphenix.protocol.events.PacketAdapter;
+import com.comphenix.protocol.events.PacketContainer;
+import com.comphenix.protocol.events.PacketEvent;
+import com.comphenix.protocol.utility.MinecraftReflection;
+import net.kyori.adventure.text.Component;
+import org.bukkit.entity.Player;
+import org.bukkit.event.inventory.InventoryAction;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.plugin.java.JavaPlugin;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ProtocolLib glue for {@link PacketShopViewCanvas}: builds the window packets and intercepts clicks on virtual windows.
+ * Only loaded when ProtocolLib is present and packet mode is enabled.
+ */
+public class PacketShopViewSupport {
+    // the server allocates container ids 1..100, so this id never collides with a real inventory
+    public static final int VIRTUAL_WINDOW_ID = 120;
+    private final HMarketViewServer viewServer;
+    private final ProtocolManager protocolManager;
+    private final Class<?> menuTypeClass;
+    private final Object genericChestMenuType;
+    private final Class<?> clickTypeClass;
+    private final PacketAdapter interceptor;
+
+    public PacketShopViewSupport(@NotNull JavaPlugin plugin, @NotNull HMarketViewServer viewServer) throws ReflectiveOperationException {
+        this.viewServer = viewServer;
+        this.protocolManager = ProtocolLibrary.getProtocolManager();
+        this.menuTypeClass = MinecraftReflection.getMinecraftClass("world.inventory.MenuType", "world.inventory.Containers");
+        this.genericChestMenuType = menuTypeClass.getField("GENERIC_9x6").get(null);
+        this.clickTypeClass = MinecraftReflection.getMinecraftClass("world.inventory.ClickType", "world.inventory.InventoryClickType");
+        this.interceptor = new PacketAdapter(plugin, ListenerPriority.NORMAL,
+                PacketType.Play.Client.WINDOW_CLICK, PacketType.Play.Client.CLOSE_WINDOW) {
+            @Override
+            public void onPacketReceiving(PacketEvent event) {
+                onClientPacket(event);
+            }
+        };
+        protocolManager.addPacketListener(interceptor);
+    }
+
+    public void destructor() {
+        protocolManager.removePacketListener(interceptor);
+    }
+
+    public @NotNull IShopViewCanvas createCanvas(@NotNull Player viewer, @NotNull Component title) {
+        return new PacketShopViewCanvas(this, viewer, title);
+    }
+
+    void sendOpen(@NotNull Player viewer, @NotNull Component title) {
+        var packet = protocolManager.createPacket(PacketType.Play.Server.OPEN_WINDOW);
+        packet.getIntegers().write(0, VIRTUAL_WINDOW_ID);
+        packet.getModifier().withType(menuTypeClass).write(0, genericChestMenuType);
+        packet.getChatComponents().write(0, ChatComponentUtils.createWrappedChatComponent(title));
+        send(viewer, packet);
+    }
+
+    void sendContents(@NotNull Player viewer, int stateId, @Nullable ItemStack @NotNull [] contents) {
+        var packet = protocolManager.createPacket(PacketType.Play.Server.WINDOW_ITEMS);
+        packet.getIntegers().write(0, VIRTUAL_WINDOW_ID).write(1, stateId);
+        // only the top section is sent, the client keeps showing its own inventory below it
+        List<ItemStack> items = new ArrayList<>(contents.length);
+        for (ItemStack itemStack : contents) {
+            items.add(orEmpty(itemStack));
+        }
+        packet.getItemListModifier().write(0, items);
+        packet.getItemModifier().write(0, ItemStack.empty());
+        send(viewer, packet);
+    }
+
+    void sendSlot(@NotNull Player viewer, int stateId, int slot, @Nullable ItemStack itemStack) {
+        var packet = protocolManager.createPacket(PacketType.Play.Server.SET_SLOT);
+        packet.getIntegers().write(0, VIRTUAL_WINDOW_ID).write(1, stateId).write(2, slot);
+        packet.getItemModifier().write(0, orEmpty(itemStack));
+        send(viewer, packet);
+    }
+
+    void sendClose(@NotNull Player viewer) {
+        var packet = protocolManager.createPacket(PacketType.Play.Server.CLOSE_WINDOW);
+        packet.getIntegers().write(0, VIRTUAL_WINDOW_ID);
+        send(viewer, packet);
+    }
+
+    private void send(@NotNull Player viewer, @NotNull PacketContainer packet) {
+        if (!viewer.isOnline()) return;
+        protocolManager.sendServerPacket(viewer, packet);
+    }
+
+    private void onClientPacket(@NotNull PacketEvent event) {
+        var packet = event.getPacket();
+        if (packet.getIntegers().read(0) != VIRTUAL_WINDOW_ID) return;
+        // the server has no container with this id, never let the packet through
+        event.setCancelled(true);
+        var player = event.getPlayer();
+        if (event.getPacketType() == PacketType.Play.Client.CLOSE_WINDOW) {
+            TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.HIGH, () -> viewServer.onVirtualClose(player));
+            return;
+        }
+        int slot = packet.getShorts().size() > 0 ? packet.getShorts().read(0) : packet.getIntegers().read(2);
+        int button = packet.getBytes().read(0);
+        var mode = packet.getEnumModifier(ClickMode.class, clickTypeClass).read(0);
+        var action = toInventoryAction(mode, button);
+        TaskUtils.async.runSyncMethod(MainThreadWorkQueue.Priority.HIGH, () -> viewServer.onVirtualClick(player, slot, action));
+    }
+
+    private static @NotNull InventoryAction toInventoryAction(@Nullable ClickMode mode, int button) {
+        if (mode == null) return InventoryAction.UNKNOWN;
+        return switch (mode) {
+            case PICKUP -> button == 0 ? InventoryAction.PICKUP_ALL : InventoryAction.PICKUP_HALF;
+            case QUICK_MOVE -> InventoryAction.MOVE_TO_OTHER_INVENTORY;
+            // drags are never forwarded to the view
+            case QUICK_CRAFT -> InventoryAction.NOTHING;
+            default -> InventoryAction.UNKNOWN;
+        };
+    }
+
+    private static @NotNull ItemStack orEmpty(@Nullable ItemStack itemStack) {
+        return itemStack == null ? ItemStack.empty() : itemStack;
+    }
+
+    // mirrors the names of the server's click type enum
+    public enum ClickMode {
+        PICKUP, QUICK_MOVE, SWAP, CLONE, THROW, QUICK_CRAFT, PICKUP_ALL
+    }
+}
@@ -3,9 +3,9 @@ package cat.nyaa.hmarket.ui.data;
 import cat.nyaa.hmarket.HMI18n;
 import cat.nyaa.hmarket.Hmarket;
 import cat.nyaa.hmarket.db.data.ShopItemData;
+import cat.nyaa.hmarket.utils.PlayerNameUtils;
 import cat.nyaa.nyaacore.utils.ItemStackUtils;
 import com.google.common.collect.Lists;
-import org.bukkit.Bukkit;
 import org.bukkit.Material;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
@@ -22,12 +22,12 @@ public class ShopItemDataUtils {
         if (api == null) return new ItemStack(Material.AIR);
         var item = ItemStackUtils.itemFromBase64(itemData.itemNbt());
         item.setAmount(itemData.amount());
-        var ownerName = Bukkit.getOfflinePlayer(itemData.owner()).getName();
+        var ownerName = PlayerNameUtils.getPlayerNameById(itemData.owner());
         var meta = item.getItemMeta();
         if (meta != null) {
             var lore = meta.lore();
             if (lore == null) lore = Lists.newArrayList();
-            lore.add(HMI18n.format("info.ui.item.owner", ownerName == null ? itemData.owner() : ownerName));
+            lore.add(HMI18n.format("info.ui.item.owner", ownerName));
             lore.add(HMI18n.format("info.ui.item.price", itemData.price()));
             lore.add(HMI18n.format("info.ui.item.tax", itemData.price() * (1.0 + api.getMarketAPI().getTaxRate(itemData)), api.getMarketAPI().getTaxRate(itemData) * 100.0));
             if (itemData.owner().equals(player.getUniqueId())) {
@@ -0,0 +1,30 @@
+package cat.nyaa.hmarket.utils;
+
+public class BlockPosUtils {
+    /**
+     * packs block coordinates into a long: 26 bits for x and z, 12 bits for y
+     */
+    public static long packBlockPos(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    public static int unpackX(long packed) {
+        return (int) (packed >> 38);
+    }
+
+    public static int unpackY(long packed) {
+        return (int) (packed << 52 >> 52);
+    }
+
+    public static int unpackZ(long packed) {
+        return (int) (packed << 26 >> 38);
+    }
+
+    public static long chunkKey(int chunkX, int chunkZ) {
+        return ((long) chunkZ << 32) | (chunkX & 0xFFFFFFFFL);
+    }
+
+    public static long chunkKeyOfBlock(int blockX, int blockZ) {
+        return chunkKey(blockX >> 4, blockZ >> 4);
+    }
+}
@@ -10,6 +10,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.*;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
@@ -99,30 +100,136 @@ public class DatabaseUtils {
 
     @Nullable
     private static PreparedStatement buildStatement(@NotNull Connection conn, @Nullable Plugin plugin, @NotNull String filename, @Nullable Integer autoGeneratedKeys, Object... parameters) {
-        return buildStatement(conn, () -> {
-            InputStream inputStream;
-            if (plugin == null) {
-                inputStream = DatabaseUtils.class.getClassLoader().getResourceAsStream("sql/" + filename);
+        return buildStatement(conn, () -> readSqlFile(plugin, filename), autoGeneratedKeys, parameters);
+    }
+
+    @Nullable
+    private static PreparedStatement buildStatement(@NotNull Supplier<Connection> connection, @Nullable Plugin plugin, @NotNull String filename, @Nullable Integer autoGeneratedKeys, Object... parameters) {
+        var conn = connection.get();
+        if (conn == null) {
+            Bukkit.getLogger().warning("buildStatement error: no database connection for " + filename);
+            return null;
+        }
+        return buildStatement(conn, plugin, filename, autoGeneratedKeys, parameters);
+    }
+
+    private static @Nullable String readSqlFile(@Nullable Plugin plugin, @NotNull String filename) {
+        InputStream inputStream;
+        if (plugin == null) {
+            inputStream = DatabaseUtils.class.getClassLoader().getResourceAsStream("sql/" + filename);
+        } else {
+            inputStream = plugin.getResource("sql/" + filename);
+        }
+        if (inputStream == null) {
+            if (plugin != null) {
+                Bukkit.getLogger().warning("buildStatement error: can not load sql file: " + filename + " from " + plugin.getName());
             } else {
-                inputStream = plugin.getResource("sql/" + filename);
+                Bukkit.getLogger().warning("buildStatement error: can not load sql file: " + filename);
             }
-            if (inputStream == null) {
-                if (plugin != null) {
-                    Bukkit.getLogger().warning("buildStatement error: can not load sql file: " + filename + " from " + plugin.getName());
-                } else {
-                    Bukkit.getLogger().warning("buildStatement error: can not load sql file: " + filename);
+            return null;
+        }
+        try (inputStream) {
+            return new String(inputStream.readAllBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * runs the statement once per parameter row in a single transaction, on the calling thread
+     *
+     * @param connection    jdbc connection
+     * @param plugin        plugin
+     * @param filename      sql file name
+     * @param parameterRows parameters of each execution
+     * @return update counts, empty if the batch failed and was rolled back
+     */
+    public static @NotNull Optional<int[]> executeBatch(Connection connection, Plugin plugin, String filename, @NotNull List<Object[]> parameterRows) {
+        if (parameterRows.isEmpty()) return Optional.of(new int[0]);
+        var stmt = buildStatement(connection, plugin, filename, null);
+        if (stmt == null) return Optional.empty();
+        try (stmt) {
+            var autoCommit = connection.getAutoCommit();
+            if (autoCommit) connection.setAutoCommit(false);
+            try {
+                for (Object[] parameters : parameterRows) {
+                    for (int i = 0; i < parameters.length; i++) {
+                        stmt.setObject(i + 1, parameters[i]);
+                    }
+                    stmt.addBatch();
                 }
-                return null;
-            }
-            try (inputStream) {
-                return new String(inputStream.readAllBytes());
-            } catch (IOException e) {
-                e.printStackTrace();
-                return null;
+                var result = stmt.executeBatch();
+                connection.commit();
+                return Optional.of(result);
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                if (autoCommit) connection.setAutoCommit(true);
             }
-        }, autoGeneratedKeys, parameters);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * runs the update on the calling thread, for statements that depend on each other and run in one storage task
+     *
+     * @return updated row count, empty if the statement failed
+     */
+    public static @NotNull Optional<Integer> executeUpdate(Supplier<Connection> connection, Plugin plugin, String filename, Object... parameters) {
+        var stmt = buildStatement(connection, plugin, filename, null, parameters);
+        if (stmt == null) return Optional.empty();
+        try (stmt) {
+            return Optional.of(stmt.executeUpdate());
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
 
+    /**
+     * runs {@code body} on the calling thread in one transaction, committed if it returns a value and rolled back if
+     * it returns empty or throws
+     */
+    public static <T> @NotNull Optional<T> inTransaction(Supplier<Connection> connection, Supplier<Optional<T>> body) {
+        var conn = connection.get();
+        if (conn == null) return Optional.empty();
+        try {
+            var autoCommit = conn.getAutoCommit();
+            if (autoCommit) conn.setAutoCommit(false);
+            var committed = false;
+            try {
+                var result = body.get();
+                if (result.isPresent()) {
+                    conn.commit();
+                    committed = true;
+                }
+                return result;
+            } finally {
+                if (!committed) conn.rollback();
+                if (autoCommit) conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
 
+    /**
+     * runs the query on the calling thread, see {@link #executeUpdate(Supplier, Plugin, String, Object...)}
+     */
+    public static <T> @NotNull Optional<T> executeQuery(Supplier<Connection> connection, Plugin plugin, String filename, Function<ResultSet, T> function, Object... parameters) {
+        var stmt = buildStatement(connection, plugin, filename, null, parameters);
+        if (stmt == null) return Optional.empty();
+        try (stmt; ResultSet resultSet = stmt.executeQuery()) {
+            return Optional.ofNullable(function.apply(resultSet));
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
     }
 
     /**
@@ -137,6 +244,14 @@ public class DatabaseUtils {
         return executeUpdateAsync(() -> buildStatement(connection, plugin, filename, null, parameters), executor);
     }
 
+    /**
+     * like {@link #executeUpdateAsync(Connection, Plugin, String, Executor, Object...)}, with the connection taken
+     * on the executor when the statement runs
+     */
+    public static @NotNull CompletableFuture<Optional<Integer>> executeUpdateAsync(Supplier<Connection> connection, Plugin plugin, String filename, Executor executor, Object... parameters) {
+        return executeUpdateAsync(() -> buildStatement(connection, plugin, filename, null, parameters), executor);
+    }
+
     public static @NotNull CompletableFuture<Optional<Integer>> executeUpdateAsync(Connection connection, String sql, Executor executor, Object... parameters) {
         return executeUpdateAsync(() -> buildStatement(connection, () -> sql, null, parameters), executor);
     }
@@ -158,6 +273,10 @@ public class DatabaseUtils {
         return executeUpdateAsyncAndGetAutoGeneratedKeys(() -> buildStatement(connection, plugin, filename, Statement.RETURN_GENERATED_KEYS, parameters), executor, biFunction);
     }
 
+    public static @NotNull <T> CompletableFuture<Optional<T>> executeUpdateAsyncAndGetAutoGeneratedKeys(Supplier<Connection> connection, Plugin plugin, String filename, Executor executor, BiFunction<Integer, ResultSet, T> biFunction, Object... parameters) {
+        return executeUpdateAsyncAndGetAutoGeneratedKeys(() -> buildStatement(connection, plugin, filename, Statement.RETURN_GENERATED_KEYS, parameters), executor, biFunction);
+    }
+
     public static @NotNull <T> CompletableFuture<Optional<T>> executeUpdateAsyncAndGetAutoGeneratedKeys(Connection connection, String sql, Executor executor, BiFunction<Integer, ResultSet, T> biFunction, Object... parameters) {
         return executeUpdateAsyncAndGetAutoGeneratedKeys(() -> buildStatement(connection, () -> sql, Statement.RETURN_GENERATED_KEYS, parameters), executor, biFunction);
     }
@@ -183,6 +302,10 @@ public class DatabaseUtils {
         return executeQueryAsync(() -> buildStatement(connection, plugin, filename, null, parameters), executor, function);
     }
 
+    public static <T> @NotNull CompletableFuture<Optional<T>> executeQueryAsync(Supplier<Connection> connection, Plugin plugin, String filename, Executor executor, Function<ResultSet, T> function, Object... parameters) {
+        return executeQueryAsync(() -> buildStatement(connection, plugin, filename, null, parameters), executor, function);
+    }
+
     public static <T> @NotNull CompletableFuture<Optional<T>> executeQueryAsync(Connection connection, String sql, Executor executor, Function<ResultSet, T> function, Object... parameters) {
         return executeQueryAsync(() -> buildStatement(connection, () -> sql, null, parameters), executor, function);
     }
@@ -0,0 +1,210 @@
+package cat.nyaa.hmarket.utils;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded ring buffer of log records drained by one writer thread.
+ * <p>
+ * Producers claim a slot with a CAS on the head sequence and publish it by writing the slot sequence, so logging
+ * from any thread never takes a lock or touches the main thread. Slots are allocated once; when the writer falls
+ * behind and the ring is full, records are dropped and counted instead of blocking the caller.
+ * <p>
+ * Fields are key, value pairs that are formatted on the writer thread, so values must be immutable; a Throwable
+ * value is logged with its stack trace.
+ * Warnings are rate limited per message key: past {@code maxPerWindow} in a window they are only counted, and the
+ * count is logged once the window rolls over. Audit records (lost money or items) are never rate limited, and are
+ * written on the calling thread when the ring is full rather than dropped.
+ */
+public class HMLogPipeline {
+    private static final int MAX_RATE_KEYS = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private final Logger logger;
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(0);
+    private volatile long consumed = 0;
+    private final Thread writer;
+    private volatile boolean running = true;
+    private volatile int maxPerWindow;
+    private volatile long windowNanos;
+    private final Map<String, RateWindow> rateWindows = new ConcurrentHashMap<>();
+    private final LongAdder written = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder suppressed = new LongAdder();
+
+    public HMLogPipeline(@NotNull Logger logger, int bufferSize, int maxPerWindow, int windowSeconds) {
+        this.logger = logger;
+        var capacity = Integer.highestOneBit(Math.max(64, bufferSize) - 1) << 1;
+        this.slots = new Slot[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = capacity - 1;
+        setRateLimit(maxPerWindow, windowSeconds);
+        this.writer = new Thread(this::drainLoop, "HMarket-Log");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    public void setRateLimit(int maxPerWindow, int windowSeconds) {
+        this.maxPerWindow = maxPerWindow;
+        this.windowNanos = TimeUnit.SECONDS.toNanos(Math.max(1, windowSeconds));
+    }
+
+    public void log(@NotNull Level level, @NotNull String message, @Nullable Object[] fields) {
+        if (level == Level.WARNING && maxPerWindow > 0 && !allow(message)) return;
+        if (!publish(level, message, fields)) dropped.increment();
+    }
+
+    public void audit(@NotNull String message, @Nullable Object[] fields) {
+        if (publish(Level.WARNING, message, fields)) return;
+        // out of order with the buffered records, but kept
+        write(new StringBuilder(128), Level.WARNING, message, fields);
+    }
+
+    /**
+     * @return false if the ring is full
+     */
+    private boolean publish(@NotNull Level level, @NotNull String message, @Nullable Object[] fields) {
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - consumed >= slots.length) {
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        var slot = slots[(int) (sequence & mask)];
+        slot.level = level;
+        slot.message = message;
+        slot.fields = fields;
+        slot.sequence = sequence;
+        return true;
+    }
+
+    private boolean allow(@NotNull String key) {
+        var now = System.nanoTime();
+        var window = rateWindows.get(key);
+        if (window == null) {
+            if (rateWindows.size() >= MAX_RATE_KEYS) rateWindows.clear();
+            window = rateWindows.computeIfAbsent(key, k -> new RateWindow(now));
+        }
+        var start = window.start.get();
+        if (now - start >= windowNanos && window.start.compareAndSet(start, now)) {
+            var skipped = window.suppressed.getAndSet(0);
+            window.count.set(0);
+            if (skipped > 0) {
+                if (!publish(Level.WARNING, key, new Object[]{"suppressed", skipped, "window_s", windowNanos / 1_000_000_000L})) {
+                    dropped.increment();
+                }
+            }
+        }
+        if (window.count.incrementAndGet() <= maxPerWindow) return true;
+        window.suppressed.incrementAndGet();
+        suppressed.increment();
+        return false;
+    }
+
+    private void drainLoop() {
+        var builder = new StringBuilder(256);
+        while (true) {
+            var next = consumed;
+            var slot = slots[(int) (next & mask)];
+            if (slot.sequence != next) {
+                if (!running && head.get() == next) return;
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+            var level = slot.level;
+            var message = slot.message;
+            var fields = slot.fields;
+            slot.level = null;
+            slot.message = null;
+            slot.fields = null;
+            consumed = next + 1;
+            write(builder, level, message, fields);
+        }
+    }
+
+    private void write(@NotNull StringBuilder builder, Level level, String message, Object[] fields) {
+        try {
+            emit(logger, builder, level, message, fields);
+            written.increment();
+        } catch (Throwable t) {
+            // a broken handler must not kill the writer
+            dropped.increment();
+        }
+    }
+
+    /**
+     * formats the fields as {@code key=value} after the message, a Throwable value is also passed to the logger so
+     * its stack trace is kept
+     */
+    static void emit(@NotNull Logger logger, @NotNull StringBuilder builder, @NotNull Level level,
+                     @NotNull String message, @Nullable Object[] fields) {
+        if (fields == null || fields.length == 0) {
+            logger.log(level, message);
+            return;
+        }
+        Throwable thrown = null;
+        builder.setLength(0);
+        builder.append(message);
+        for (int i = 0; i + 1 < fields.length; i += 2) {
+            var value = fields[i + 1];
+            if (thrown == null && value instanceof Throwable throwable) thrown = throwable;
+            builder.append(' ').append(fields[i]).append('=').append(value);
+        }
+        if (thrown != null) {
+            logger.log(level, builder.toString(), thrown);
+        } else {
+            logger.log(level, builder.toString());
+        }
+    }
+
+    /**
+     * stops the writer once everything published so far has been written
+     */
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public @NotNull LogMetrics getMetrics() {
+        return new LogMetrics(written.sum(), dropped.sum(), suppressed.sum(), (int) (head.get() - consumed), slots.length);
+    }
+
+    public record LogMetrics(long written, long dropped, long suppressed, int backlog, int capacity) {
+    }
+
+    private static final class Slot {
+        private volatile long sequence = -1;
+        private Level level;
+        private String message;
+        private Object[] fields;
+    }
+
+    private static final class RateWindow {
+        private final AtomicLong start;
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicInteger suppressed = new AtomicInteger();
+
+        private RateWindow(long start) {
+            this.start = new AtomicLong(start);
+        }
+    }
+}
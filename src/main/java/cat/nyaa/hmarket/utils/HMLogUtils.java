@@ -1,31 +1,99 @@
 package cat.nyaa.hmarket.utils;
 
 import cat.nyaa.hmarket.Hmarket;
+import cat.nyaa.hmarket.config.HMConfig;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class HMLogUtils {
-    public static void logInfo(String message) {
-        var plugin = Hmarket.getInstance();
-        if (plugin == null) return;
-        TaskUtils.async.callSync(() -> plugin.getLogger().info(message));
+    @Nullable
+    private static volatile HMLogPipeline pipeline;
+
+    public static void start(@NotNull Hmarket plugin, @NotNull HMConfig config) {
+        stop();
+        pipeline = new HMLogPipeline(plugin.getLogger(), config.logBufferSize,
+                config.logWarningMaxPerWindow, config.logWarningWindowSeconds);
     }
 
-    public static void logWarning(String message) {
+    /**
+     * applies new rate limits in place, a new buffer size replaces the pipeline
+     */
+    public static void onConfigReload(@NotNull HMConfig previous, @NotNull HMConfig current) {
         var plugin = Hmarket.getInstance();
+        if (plugin != null && (pipeline == null || previous.logBufferSize != current.logBufferSize)) {
+            start(plugin, current);
+            return;
+        }
+        var running = pipeline;
+        if (running != null) running.setRateLimit(current.logWarningMaxPerWindow, current.logWarningWindowSeconds);
+    }
+
+    /**
+     * writes what is still buffered, later log calls go straight to the logger
+     */
+    public static void stop() {
+        var current = pipeline;
+        pipeline = null;
+        if (current != null) current.shutdown();
+    }
+
+    public static @Nullable HMLogPipeline getPipeline() {
+        return pipeline;
+    }
 
-        TaskUtils.async.callSync(() -> {
-            if (plugin != null) {
-                plugin.getLogger().warning(message);
-            } else {
-                Logger.getAnonymousLogger().warning(message);
-            }
-        });
+    public static void logInfo(String message) {
+        log(Level.INFO, message, null);
+    }
+
+    public static void logWarning(String message) {
+        log(Level.WARNING, message, null);
     }
 
     public static void logError(String message) {
+        log(Level.SEVERE, message, null);
+    }
+
+    /**
+     * @param event  constant event name, also the rate limit key of warnings
+     * @param fields key, value pairs, values must be immutable. A Throwable value is logged with its stack trace
+     */
+    public static void info(@NotNull String event, Object... fields) {
+        log(Level.INFO, event, fields);
+    }
+
+    public static void warning(@NotNull String event, Object... fields) {
+        log(Level.WARNING, event, fields);
+    }
+
+    public static void error(@NotNull String event, Object... fields) {
+        log(Level.SEVERE, event, fields);
+    }
+
+    /**
+     * a warning that is the only record of lost money or items: never rate limited or dropped
+     */
+    public static void audit(@NotNull String event, Object... fields) {
+        var current = pipeline;
+        if (current != null) {
+            current.audit(event, fields);
+            return;
+        }
+        log(Level.WARNING, event, fields);
+    }
+
+    private static void log(@NotNull Level level, @NotNull String message, @Nullable Object[] fields) {
+        var current = pipeline;
+        if (current != null) {
+            current.log(level, message, fields);
+            return;
+        }
+        // before start and after stop, only warnings and errors are kept
+        if (level == Level.INFO) return;
         var plugin = Hmarket.getInstance();
-        if (plugin == null) return;
-        TaskUtils.async.callSync(() -> plugin.getLogger().severe(message));
+        var logger = plugin != null ? plugin.getLogger() : Logger.getAnonymousLogger();
+        HMLogPipeline.emit(logger, new StringBuilder(128), level, message, fields);
     }
 }
@@ -1,5 +0,0 @@
-package cat.nyaa.hmarket.utils;
-
-public class KeyUtils {
-    public static final String SIGN_CREATE_LOCK = "hmarket.sign.create.lock";
-}
@@ -0,0 +1,138 @@
+package cat.nyaa.hmarket.utils;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Main thread work submitted from any thread, run by {@link #drain()} once per tick within a time budget.
+ * <p>
+ * Each tick first runs one task of every priority that has work, so low priority work always moves, then keeps
+ * taking the highest priority task until the budget is used up. What is left carries over to the next tick.
+ */
+public class MainThreadWorkQueue {
+    private final Map<Priority, Queue<Runnable>> queues = new EnumMap<>(Priority.class);
+    private final Map<Priority, Executor> executors = new EnumMap<>(Priority.class);
+    private final AtomicInteger backlog = new AtomicInteger();
+    private volatile long budgetNanos;
+    private final LongAdder submitted = new LongAdder();
+    // only written by the main thread
+    private volatile long lastTickNanos = 0;
+    private volatile int lastTickTasks = 0;
+    private volatile long maxTickNanos = 0;
+    private volatile long avgTickNanos = 0;
+    private volatile long ticksOverBudget = 0;
+    private volatile long completed = 0;
+
+    public MainThreadWorkQueue(int budgetMillis) {
+        setBudgetMillis(budgetMillis);
+        for (Priority priority : Priority.values()) {
+            queues.put(priority, new ConcurrentLinkedQueue<>());
+            executors.put(priority, task -> submit(priority, task));
+        }
+    }
+
+    public void setBudgetMillis(int budgetMillis) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, budgetMillis));
+    }
+
+    public void submit(@NotNull Priority priority, @NotNull Runnable task) {
+        queues.get(priority).add(task);
+        backlog.incrementAndGet();
+        submitted.increment();
+    }
+
+    public @NotNull Executor executor(@NotNull Priority priority) {
+        return executors.get(priority);
+    }
+
+    /**
+     * runs queued tasks until the tick budget is used up. Main thread only.
+     */
+    public void drain() {
+        var start = System.nanoTime();
+        var deadline = start + budgetNanos;
+        int ran = 0;
+        for (Priority priority : Priority.values()) {
+            if (run(queues.get(priority).poll())) ran++;
+        }
+        while (System.nanoTime() < deadline) {
+            var task = pollHighest();
+            if (task == null) break;
+            run(task);
+            ran++;
+        }
+        record(System.nanoTime() - start, ran);
+    }
+
+    /**
+     * runs every queued task regardless of the budget, used on shutdown. Main thread only.
+     */
+    public void drainAll() {
+        var start = System.nanoTime();
+        int ran = 0;
+        Runnable task;
+        while ((task = pollHighest()) != null) {
+            run(task);
+            ran++;
+        }
+        record(System.nanoTime() - start, ran);
+    }
+
+    private Runnable pollHighest() {
+        for (Priority priority : Priority.values()) {
+            var task = queues.get(priority).poll();
+            if (task != null) return task;
+        }
+        return null;
+    }
+
+    private boolean run(Runnable task) {
+        if (task == null) return false;
+        backlog.decrementAndGet();
+        try {
+            task.run();
+        } catch (Throwable t) {
+            HMLogUtils.error("main-thread.task-failed", "error", t);
+        }
+        return true;
+    }
+
+    private void record(long nanos, int tasks) {
+        lastTickNanos = nanos;
+        lastTickTasks = tasks;
+        completed += tasks;
+        if (tasks == 0) return;
+        if (nanos > maxTickNanos) maxTickNanos = nanos;
+        if (nanos > budgetNanos) ticksOverBudget++;
+        // moving average over roughly the last 32 busy ticks
+        avgTickNanos += (nanos - avgTickNanos) >> 5;
+    }
+
+    public @NotNull WorkMetrics getMetrics() {
+        Map<Priority, Integer> depth = new EnumMap<>(Priority.class);
+        queues.forEach((priority, queue) -> depth.put(priority, queue.size()));
+        return new WorkMetrics(backlog.get(), depth, submitted.sum(), completed, lastTickNanos, lastTickTasks,
+                avgTickNanos, maxTickNanos, ticksOverBudget, budgetNanos);
+    }
+
+    public enum Priority {
+        // a player is waiting for the result: purchases, clicks
+        HIGH,
+        NORMAL,
+        // background upkeep: fee billing, settlements
+        LOW
+    }
+
+    public record WorkMetrics(int backlog, Map<Priority, Integer> backlogByPriority, long submitted, long completed,
+                              long lastTickNanos, int lastTickTasks, long avgTickNanos, long maxTickNanos,
+                              long ticksOverBudget, long budgetNanos) {
+    }
+}
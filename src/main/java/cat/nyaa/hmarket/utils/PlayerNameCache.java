@@ -0,0 +1,117 @@
+package cat.nyaa.hmarket.utils;
+
+import cat.nyaa.hmarket.config.HMConfig;
+import cat.nyaa.hmarket.db.HmarketDatabaseManager;
+import org.bukkit.Bukkit;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.*;
+
+/**
+ * Non-blocking cache of player names used by listings, sign titles and shop lists.
+ * <p>
+ * Lookups never touch the user cache on the calling thread: a miss (or a stale entry) schedules an
+ * asynchronous lookup and returns the UUID (or the stale name) immediately.
+ */
+public class PlayerNameCache implements Listener {
+    // one per cache and shut down with it, so no thread or queued lookup outlives a disable
+    private final ExecutorService lookupExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        var thread = new Thread(runnable, "HMarket-PlayerName");
+        thread.setDaemon(true);
+        return thread;
+    });
+    @Nullable
+    private static PlayerNameCache instance;
+    private final SimpleKVCache<UUID, String> names;
+
+    public PlayerNameCache(@NotNull HMConfig config, @NotNull HmarketDatabaseManager databaseManager) {
+        this.names = new SimpleKVCache<>(new SimpleKVCache.simpleDataProvider<>() {
+            @Override
+            public CompletableFuture<Optional<String>> get(@NotNull UUID key) {
+                try {
+                    return CompletableFuture.supplyAsync(() -> lookup(key), lookupExecutor);
+                } catch (RejectedExecutionException e) {
+                    // destructed, keep showing the UUID
+                    return CompletableFuture.completedFuture(Optional.empty());
+                }
+            }
+
+            @Override
+            public CompletableFuture<Optional<Map<UUID, String>>> getAll() {
+                return CompletableFuture.completedFuture(Optional.of(Map.of()));
+            }
+
+            // names only live in memory
+            @Override
+            public CompletableFuture<Boolean> insert(@NotNull UUID key, @NotNull String value) {
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> update(@NotNull UUID key, @NotNull String value) {
+                return CompletableFuture.completedFuture(true);
+            }
+
+            @Override
+            public CompletableFuture<Boolean> remove(@NotNull UUID key) {
+                return CompletableFuture.completedFuture(true);
+            }
+        }, SimpleKVCache.Options.defaults()
+                .preload(false)
+                .maximumSize(Math.max(1, config.playerNameCacheMaxSize))
+                .refreshAfter(Math.max(1, config.playerNameCacheRefreshMinutes) * 60_000L));
+        instance = this;
+        Bukkit.getOnlinePlayers().forEach(player -> put(player.getUniqueId(), player.getName()));
+        databaseManager.getAllListingOwners().thenAccept(owners -> owners.ifPresent(this::warmUp));
+    }
+
+    public static @Nullable PlayerNameCache getInstance() {
+        return instance;
+    }
+
+    public void destructor() {
+        lookupExecutor.shutdownNow();
+        names.evictIf(playerId -> true);
+        instance = null;
+    }
+
+    /**
+     * @param playerId player id
+     * @return the cached name, or the UUID as string until the name has been resolved
+     */
+    public @NotNull String getName(@NotNull UUID playerId) {
+        var name = names.get(playerId);
+        if (name != null) return name;
+        names.getAsync(playerId);
+        return playerId.toString();
+    }
+
+    public void put(@NotNull UUID playerId, @NotNull String name) {
+        names.put(playerId, name);
+    }
+
+    private void warmUp(@NotNull Collection<UUID> playerIds) {
+        playerIds.forEach(names::getAsync);
+    }
+
+    private @NotNull Optional<String> lookup(@NotNull UUID playerId) {
+        if (instance != this) return Optional.empty();
+        // unknown players keep their UUID until the next refresh instead of being looked up on every render
+        return Optional.of(Objects.requireNonNullElse(Bukkit.getOfflinePlayer(playerId).getName(), playerId.toString()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(@NotNull PlayerJoinEvent event) {
+        put(event.getPlayer().getUniqueId(), event.getPlayer().getName());
+    }
+}
@@ -1,29 +1,59 @@
 package cat.nyaa.hmarket.utils;
 
-import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 // from https://github.com/NyaaCat/aolib
 public class SimpleKVCache<K, V> {
-    public final ConcurrentHashMap<K, V> cache;
+    // all writes must go through putInternal/removeInternal so snapshots and listeners see them
+    private final ConcurrentHashMap<K, V> cache;
+    private final AtomicLong version = new AtomicLong(0);
+    private final List<ChangeListener<K, V>> listeners = new CopyOnWriteArrayList<>();
+    private volatile Snapshot<K, V> snapshot = null;
     private final simpleDataProvider<K, V> provider;
+    private final Options options;
+    // load time of each entry, only tracked with refresh-ahead
+    private final Map<K, Long> loadedAt = new ConcurrentHashMap<>();
+    // access order of the entries, only tracked with a maximum size
+    private final LinkedHashMap<K, Boolean> accessOrder = new LinkedHashMap<>(16, 0.75f, true);
+    // keys the provider has no value for, with the time of the lookup
+    private final LinkedHashMap<K, Long> misses;
+    private final Map<K, CompletableFuture<Optional<V>>> pendingLoads = new ConcurrentHashMap<>();
     private final AtomicInteger loaded = new AtomicInteger(0); // -1 failed, 0 not loaded, 1 loaded
     private CompletableFuture<?> loadFuture;
 
     public SimpleKVCache(@NotNull simpleDataProvider<K, V> provider) {
+        this(provider, Options.defaults());
+    }
+
+    public SimpleKVCache(@NotNull simpleDataProvider<K, V> provider, @NotNull Options options) {
         this.provider = provider;
+        this.options = options;
         this.cache = new ConcurrentHashMap<>();
-        reload0();
+        this.misses = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Long> eldest) {
+                return size() > options.negativeMaximumSize;
+            }
+        };
+        if (options.preload) {
+            reload0();
+        } else {
+            this.loadFuture = CompletableFuture.completedFuture(null);
+            this.loaded.set(1);
+        }
     }
 
 
@@ -44,7 +74,7 @@ public class SimpleKVCache<K, V> {
     private Optional<CompletableFuture<?>> reload0() {
         this.loadFuture = provider.getAll()
                 .thenAccept(optionalMap -> optionalMap.ifPresentOrElse((map) -> {
-                    cache.putAll(map);
+                    map.forEach(this::putInternal);
                     this.loaded.set(1);
                 }, () -> this.loaded.set(-1)))
                 .exceptionally(throwable -> {
@@ -64,21 +94,213 @@ public class SimpleKVCache<K, V> {
     }
 
     /**
-     * wait until cache is loaded
+     * @return true if the initial load is still running
+     */
+    public boolean isLoading() {
+        return loaded.get() == 0;
+    }
+
+    /**
+     * @return the future of the current load, completes (normally) when the cache is loaded or has failed to load
+     */
+    public CompletableFuture<?> whenLoaded() {
+        return loadFuture;
+    }
+
+    /**
+     * wait until cache is loaded. Blocks the calling thread, never call it from the main thread.
      */
     public void waitToLoad() {
         loadFuture.join();
     }
 
+    /**
+     * never blocks: callers that can run before the load has finished must check {@link #isLoaded()} first
+     */
     private void checkLoaded() {
-        if (loaded.get() == 0) {
-            waitToLoad();
-        }
         if (!isLoaded()) {
-            throw new IllegalStateException("cache not loaded");
+            throw new IllegalStateException(isLoading() ? "cache is still loading" : "cache not loaded");
+        }
+    }
+
+    /**
+     * merge entries loaded outside of {@link simpleDataProvider#getAll()}, e.g. one partition at a time
+     *
+     * @param map loaded entries
+     */
+    public void putAllLoaded(@NotNull Map<K, V> map) {
+        map.forEach(this::putInternal);
+    }
+
+    /**
+     * drop entries from memory only, the provider is not touched
+     *
+     * @param predicate keys to evict
+     * @return true if any entry was evicted
+     */
+    public boolean evictIf(@NotNull Predicate<K> predicate) {
+        var evicted = false;
+        for (K k : cache.keySet()) {
+            if (predicate.test(k)) {
+                evicted |= removeInternal(k);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * @param listener notified of every entry put into or removed from the cache, on the thread doing the write and
+     *                 while the entry is locked; it must not read or write the cache
+     */
+    public void addListener(@NotNull ChangeListener<K, V> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @return a number that changes whenever the content of the cache changes
+     */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /**
+     * listeners are notified inside the map write, so writes to one key reach them in the order the map applied them.
+     * Listeners must not touch the cache.
+     */
+    private void putInternal(K k, V v) {
+        cache.compute(k, (key, old) -> {
+            version.incrementAndGet();
+            for (ChangeListener<K, V> listener : listeners) {
+                if (old != null) listener.onRemove(key, old);
+                listener.onPut(key, v);
+            }
+            return v;
+        });
+        if (options.refreshAfterMillis > 0) {
+            loadedAt.put(k, TimeUtils.getUnixTimeStampNow());
+        }
+        if (options.negativeMaximumSize > 0) {
+            synchronized (misses) {
+                misses.remove(k);
+            }
+        }
+        if (options.maximumSize > 0) {
+            touch(k);
+            evictOverflow();
+        }
+    }
+
+    private boolean removeInternal(K k) {
+        var removed = new boolean[1];
+        cache.computeIfPresent(k, (key, old) -> {
+            version.incrementAndGet();
+            for (ChangeListener<K, V> listener : listeners) {
+                listener.onRemove(key, old);
+            }
+            removed[0] = true;
+            return null;
+        });
+        if (!removed[0]) return false;
+        loadedAt.remove(k);
+        if (options.maximumSize > 0) {
+            synchronized (accessOrder) {
+                accessOrder.remove(k);
+            }
+        }
+        return true;
+    }
+
+    private void touch(K k) {
+        synchronized (accessOrder) {
+            accessOrder.put(k, Boolean.TRUE);
+        }
+    }
+
+    /**
+     * evicts the least recently used entries from memory until the cache fits its maximum size
+     */
+    private void evictOverflow() {
+        while (cache.size() > options.maximumSize) {
+            K eldest;
+            synchronized (accessOrder) {
+                var iterator = accessOrder.keySet().iterator();
+                if (!iterator.hasNext()) return;
+                eldest = iterator.next();
+                iterator.remove();
+            }
+            removeInternal(eldest);
+        }
+    }
+
+    private void rememberMiss(K k) {
+        if (options.negativeMaximumSize <= 0) return;
+        synchronized (misses) {
+            misses.put(k, TimeUtils.getUnixTimeStampNow());
+        }
+    }
+
+    private boolean isRememberedMiss(K k) {
+        if (options.negativeMaximumSize <= 0) return false;
+        synchronized (misses) {
+            var at = misses.get(k);
+            if (at == null) return false;
+            if (TimeUtils.getUnixTimeStampNow() - at > options.negativeTtlMillis) {
+                misses.remove(k);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    private void refreshIfDue(K k) {
+        if (options.refreshAfterMillis <= 0) return;
+        var at = loadedAt.get(k);
+        if (at != null && TimeUtils.getUnixTimeStampNow() - at > options.refreshAfterMillis) {
+            load(k);
         }
     }
 
+    /**
+     * loads a key from the provider, concurrent loads of the same key share one provider call
+     */
+    private CompletableFuture<Optional<V>> load(K k) {
+        var pending = pendingLoads.get(k);
+        if (pending != null) return pending;
+        var future = new CompletableFuture<Optional<V>>();
+        pending = pendingLoads.putIfAbsent(k, future);
+        if (pending != null) return pending;
+        provider.get(k).thenApply(v -> {
+            v.ifPresentOrElse(v1 -> putInternal(k, v1), () -> {
+                removeInternal(k);
+                rememberMiss(k);
+            });
+            return v;
+        }).exceptionally(throwable -> {
+            throwable.printStackTrace();
+            return Optional.empty();
+        }).thenAccept(v -> {
+            pendingLoads.remove(k, future);
+            future.complete(v);
+        });
+        return future;
+    }
+
+    /**
+     * @return immutable copy of the cache, rebuilt only if the cache changed since the last call
+     */
+    private ImmutableMap<K, V> getSnapshot() {
+        checkLoaded();
+        var current = snapshot;
+        // read the version before copying, a write racing with the copy only makes the next call rebuild
+        var currentVersion = version.get();
+        if (current != null && current.version() == currentVersion) {
+            return current.map();
+        }
+        var map = ImmutableMap.copyOf(cache);
+        snapshot = new Snapshot<>(currentVersion, map);
+        return map;
+    }
+
     /**
      * get value from cache
      *
@@ -87,7 +309,26 @@ public class SimpleKVCache<K, V> {
      */
     public V get(K k) {
         checkLoaded();
-        return cache.get(k);
+        var v = cache.get(k);
+        if (v != null) {
+            if (options.maximumSize > 0) touch(k);
+            refreshIfDue(k);
+        }
+        return v;
+    }
+
+    /**
+     * get value from cache, or load it from the provider on a miss. Remembered misses are answered without
+     * asking the provider again until they expire.
+     *
+     * @param k KEY
+     * @return VALUE, or empty if the provider has none
+     */
+    public CompletableFuture<Optional<V>> getAsync(K k) {
+        var v = get(k);
+        if (v != null) return CompletableFuture.completedFuture(Optional.of(v));
+        if (isRememberedMiss(k)) return CompletableFuture.completedFuture(Optional.empty());
+        return load(k);
     }
 
     /**
@@ -114,27 +355,24 @@ public class SimpleKVCache<K, V> {
     }
 
     /**
-     * @return immutable map of cache
+     * @return immutable map of cache, shared between callers until the next write
      */
     public Map<K, V> getAll() {
-        checkLoaded();
-        return ImmutableMap.copyOf(cache);
+        return getSnapshot();
     }
 
     /**
-     * @return immutable value list of cache
+     * @return immutable value list of cache, shared between callers until the next write
      */
     public List<V> values() {
-        checkLoaded();
-        return ImmutableList.copyOf(cache.values());
+        return getSnapshot().values().asList();
     }
 
     /**
-     * @return immutable key list of cache
+     * @return immutable key list of cache, shared between callers until the next write
      */
     public Set<K> keySet() {
-        checkLoaded();
-        return ImmutableSet.copyOf(cache.keySet());
+        return getSnapshot().keySet();
     }
 
     /**
@@ -156,7 +394,7 @@ public class SimpleKVCache<K, V> {
     public CompletableFuture<Optional<V>> getAndUpdateCache(K k) {
         checkLoaded();
         return provider.get(k).thenApply(v -> {
-            v.ifPresent(v1 -> cache.put(k, v1));
+            v.ifPresent(v1 -> putInternal(k, v1));
             return v;
         }).exceptionally(throwable -> {
             throwable.printStackTrace();
@@ -182,7 +420,7 @@ public class SimpleKVCache<K, V> {
 
         return cf.thenApply(b -> {
             if (b) {
-                cache.put(k, v);
+                putInternal(k, v);
             }
             return b;
         }).exceptionally(throwable -> {
@@ -204,7 +442,7 @@ public class SimpleKVCache<K, V> {
         if (cache.containsKey(k)) {
             return provider.remove(k).thenApply(b -> {
                 if (b) {
-                    cache.remove(k);
+                    removeInternal(k);
                 }
                 return b;
             }).exceptionally(throwable -> {
@@ -216,6 +454,64 @@ public class SimpleKVCache<K, V> {
     }
 
 
+    public interface ChangeListener<K, V> {
+        void onPut(K key, V value);
+
+        void onRemove(K key, V value);
+    }
+
+    /**
+     * cache behaviour, e.g. {@code Options.defaults().preload(false).maximumSize(1024)}
+     */
+    public static class Options {
+        private boolean preload = true;
+        private long refreshAfterMillis = -1;
+        private int maximumSize = -1;
+        private int negativeMaximumSize = 0;
+        private long negativeTtlMillis = 0;
+
+        public static Options defaults() {
+            return new Options();
+        }
+
+        /**
+         * @param preload if false, the cache starts empty and loaded, and is filled on demand or with {@link #putAllLoaded(Map)}
+         */
+        public Options preload(boolean preload) {
+            this.preload = preload;
+            return this;
+        }
+
+        /**
+         * @param millis reading an entry older than this reloads it in the background, the old value is served meanwhile
+         */
+        public Options refreshAfter(long millis) {
+            this.refreshAfterMillis = millis;
+            return this;
+        }
+
+        /**
+         * @param maximumSize entries beyond this are evicted from memory, least recently used first
+         */
+        public Options maximumSize(int maximumSize) {
+            this.maximumSize = maximumSize;
+            return this;
+        }
+
+        /**
+         * @param maximumSize how many keys without a value to remember
+         * @param ttlMillis   how long a key without a value is remembered
+         */
+        public Options negativeCache(int maximumSize, long ttlMillis) {
+            this.negativeMaximumSize = maximumSize;
+            this.negativeTtlMillis = ttlMillis;
+            return this;
+        }
+    }
+
+    private record Snapshot<K, V>(long version, ImmutableMap<K, V> map) {
+    }
+
     public interface simpleDataProvider<K, V> {
         CompletableFuture<Optional<V>> get(@NotNull K key); // throw SQLException
 
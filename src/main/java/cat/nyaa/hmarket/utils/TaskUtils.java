@@ -15,10 +15,30 @@ import java.util.function.Supplier;
 // from https://github.com/NyaaCat/aolib
 public class TaskUtils {
     public static class async {
-        public static Executor mainThreadExecutor = Bukkit.getScheduler().getMainThreadExecutor(Hmarket.getInstance());
+        private static final Executor bukkitMainThreadExecutor = Bukkit.getScheduler().getMainThreadExecutor(Hmarket.getInstance());
+        @Nullable
+        private static volatile MainThreadWorkQueue workQueue;
+        // NORMAL priority work, runs through the work queue once it is set up
+        public static final Executor mainThreadExecutor = task -> executor(MainThreadWorkQueue.Priority.NORMAL).execute(task);
+
+        /**
+         * routes main thread work through {@code queue}, or straight to the scheduler if null
+         */
+        public static void setWorkQueue(@Nullable MainThreadWorkQueue queue) {
+            workQueue = queue;
+        }
+
+        public static @NotNull Executor executor(@NotNull MainThreadWorkQueue.Priority priority) {
+            var queue = workQueue;
+            return queue == null ? bukkitMainThreadExecutor : queue.executor(priority);
+        }
 
         public static <T> T getSyncDefault(@NotNull Supplier<@NotNull T> supplier, @Nullable T defaultValue) {
-            var result = getSync(supplier);
+            return getSyncDefault(MainThreadWorkQueue.Priority.NORMAL, supplier, defaultValue);
+        }
+
+        public static <T> T getSyncDefault(@NotNull MainThreadWorkQueue.Priority priority, @NotNull Supplier<@NotNull T> supplier, @Nullable T defaultValue) {
+            var result = getSync(priority, supplier);
             if (result.isEmpty()) {
                 return defaultValue;
             }
@@ -26,8 +46,12 @@ public class TaskUtils {
         }
 
         public static <T> Optional<T> getSync(@NotNull Supplier<T> supplier) {
+            return getSync(MainThreadWorkQueue.Priority.NORMAL, supplier);
+        }
+
+        public static <T> Optional<T> getSync(@NotNull MainThreadWorkQueue.Priority priority, @NotNull Supplier<T> supplier) {
             try {
-                return Optional.ofNullable(getSyncThrow(supplier));
+                return Optional.ofNullable(callSync(priority, supplier).get());
             } catch (CancellationException cancellationException) {
                 Bukkit.getLogger().warning("Exception in main thread executor");
             } catch (ExecutionException | InterruptedException e) {
@@ -43,10 +67,14 @@ public class TaskUtils {
         }
 
         public static <T> CompletableFuture<T> callSync(@NotNull Supplier<T> supplier) {
+            return callSync(MainThreadWorkQueue.Priority.NORMAL, supplier);
+        }
+
+        public static <T> CompletableFuture<T> callSync(@NotNull MainThreadWorkQueue.Priority priority, @NotNull Supplier<T> supplier) {
             if (Bukkit.isPrimaryThread()) {
                 return CompletableFuture.completedFuture(supplier.get());
             } else {
-                return runSyncMethod(supplier);
+                return runSyncMethod(priority, supplier);
             }
         }
 
@@ -61,11 +89,19 @@ public class TaskUtils {
         }
 
         public static <T> @NotNull CompletableFuture<T> runSyncMethod(@NotNull Supplier<T> task) {
-            return CompletableFuture.supplyAsync(task, mainThreadExecutor);
+            return runSyncMethod(MainThreadWorkQueue.Priority.NORMAL, task);
+        }
+
+        public static <T> @NotNull CompletableFuture<T> runSyncMethod(@NotNull MainThreadWorkQueue.Priority priority, @NotNull Supplier<T> task) {
+            return CompletableFuture.supplyAsync(task, executor(priority));
         }
 
         public static @NotNull CompletableFuture<Void> runSyncMethod(@NotNull Runnable task) {
-            return CompletableFuture.runAsync(task, mainThreadExecutor);
+            return runSyncMethod(MainThreadWorkQueue.Priority.NORMAL, task);
+        }
+
+        public static @NotNull CompletableFuture<Void> runSyncMethod(@NotNull MainThreadWorkQueue.Priority priority, @NotNull Runnable task) {
+            return CompletableFuture.runAsync(task, executor(priority));
         }
     }
-}
\ No newline at end of file
+}
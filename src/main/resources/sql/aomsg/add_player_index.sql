@@ -0,0 +1 @@
+CREATE INDEX IF NOT EXISTS aomsg.ao_msg_player ON ao_msg (player, msg_id);
\ No newline at end of file
@@ -0,0 +1,5 @@
+DELETE FROM aomsg.ao_msg
+WHERE msg_id IN (SELECT msg_id
+                 FROM (SELECT msg_id, ROW_NUMBER() OVER (PARTITION BY player ORDER BY msg_id DESC) AS row_num
+                       FROM aomsg.ao_msg)
+                 WHERE row_num > ?);
\ No newline at end of file
@@ -0,0 +1 @@
+DELETE FROM aomsg.ao_msg WHERE created_at < ?;
\ No newline at end of file
@@ -0,0 +1 @@
+DELETE FROM aomsg.ao_msg WHERE msg_id=?;
\ No newline at end of file
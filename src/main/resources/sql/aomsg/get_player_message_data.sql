@@ -1 +0,0 @@
-SELECT * FROM ao_msg WHERE player=?;
\ No newline at end of file
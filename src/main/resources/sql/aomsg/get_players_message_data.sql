@@ -0,0 +1,8 @@
+SELECT msg_id, msg, msg_type, player, created_at
+FROM (SELECT m.*, ROW_NUMBER() OVER (PARTITION BY m.player ORDER BY m.msg_id) AS row_num
+      FROM aomsg.ao_msg m
+               JOIN (SELECT json_extract(value, '$.player') AS player, json_extract(value, '$.cursor') AS cursor
+                     FROM json_each(?)) c
+                    ON m.player = c.player AND m.msg_id > c.cursor)
+WHERE row_num <= ?
+ORDER BY player, msg_id;
\ No newline at end of file
@@ -1,4 +1,4 @@
-CREATE TABLE IF NOT EXISTS ao_msg
+CREATE TABLE IF NOT EXISTS aomsg.ao_msg
 (
     msg_id      INTEGER
                 PRIMARY KEY AUTOINCREMENT,
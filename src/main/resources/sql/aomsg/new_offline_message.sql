@@ -1 +1 @@
-INSERT INTO ao_msg (msg,msg_type,player,created_at) VALUES (?,?,?,?);
\ No newline at end of file
+INSERT INTO aomsg.ao_msg (msg,msg_type,player,created_at) VALUES (?,?,?,?);
\ No newline at end of file
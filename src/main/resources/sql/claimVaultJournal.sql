@@ -0,0 +1 @@
+UPDATE vault_journal SET settlementId=? WHERE settlementId=0;
\ No newline at end of file
@@ -0,0 +1,10 @@
+INSERT INTO shop_frame (frameId, world, blockX, blockY, blockZ, owner, market, itemId)
+SELECT *
+FROM (
+    VALUES(?, ?, ?, ?, ?, ?, ?, ?)
+)
+WHERE (
+	SELECT COUNT(*)
+	FROM shop_frame
+	WHERE owner = ?
+) < ?;
\ No newline at end of file
@@ -0,0 +1 @@
+DELETE FROM shop_frame WHERE frameId=?;
\ No newline at end of file
@@ -0,0 +1 @@
+DELETE FROM vault_settlement WHERE settlementId=?;
\ No newline at end of file
@@ -0,0 +1 @@
+DELETE FROM vault_journal WHERE settlementId=?;
\ No newline at end of file
@@ -0,0 +1,5 @@
+SELECT owner
+FROM shop_item
+UNION
+SELECT owner
+FROM shop_location_v2;
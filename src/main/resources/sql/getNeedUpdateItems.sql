@@ -1 +0,0 @@
-SELECT * FROM shop_item WHERE updatedAt<?;
\ No newline at end of file
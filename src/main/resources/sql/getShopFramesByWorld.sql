@@ -0,0 +1 @@
+SELECT * FROM shop_frame WHERE world=?;
\ No newline at end of file
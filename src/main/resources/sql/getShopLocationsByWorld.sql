@@ -0,0 +1 @@
+SELECT * FROM shop_location_v2 WHERE world=?;
\ No newline at end of file
@@ -0,0 +1,4 @@
+SELECT * FROM shop_location_v2
+WHERE world = ?
+  AND (blockX >> 4) BETWEEN ? AND ?
+  AND (blockZ >> 4) BETWEEN ? AND ?;
\ No newline at end of file
@@ -0,0 +1 @@
+SELECT itemId, market, createdAt, updatedAt FROM shop_item WHERE amount>0;
\ No newline at end of file
@@ -0,0 +1 @@
+SELECT * FROM vault_settlement;
\ No newline at end of file
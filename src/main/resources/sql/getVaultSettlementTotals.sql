@@ -0,0 +1 @@
+SELECT category, SUM(amount) AS total FROM vault_journal WHERE settlementId=? GROUP BY category;
\ No newline at end of file
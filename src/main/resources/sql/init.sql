@@ -21,4 +21,35 @@ CREATE TABLE IF NOT EXISTS shop_location_v2
     owner   VARCHAR NOT NULL,
     market  VARCHAR NOT NULL,
     CONSTRAINT shop_location_id PRIMARY KEY (blockX, blockY, blockZ, world)
-);
\ No newline at end of file
+);
+CREATE INDEX IF NOT EXISTS shop_location_v2_world_chunk ON shop_location_v2 (world, (blockX >> 4), (blockZ >> 4));
+CREATE TABLE IF NOT EXISTS shop_frame
+(
+    frameId VARCHAR NOT NULL PRIMARY KEY,
+    world   VARCHAR NOT NULL,
+    blockX  INTEGER NOT NULL,
+    blockY  INTEGER NOT NULL,
+    blockZ  INTEGER NOT NULL,
+    owner   VARCHAR NOT NULL,
+    market  VARCHAR NOT NULL,
+    itemId  INTEGER NOT NULL
+);
+CREATE INDEX IF NOT EXISTS shop_frame_world_chunk ON shop_frame (world, (blockX >> 4), (blockZ >> 4));
+CREATE TABLE IF NOT EXISTS vault_journal
+(
+    entryId      INTEGER
+        PRIMARY KEY AUTOINCREMENT,
+    category     VARCHAR NOT NULL,
+    amount       DOUBLE  NOT NULL,
+    createdAt    BIGINT  NOT NULL,
+    settlementId BIGINT  NOT NULL DEFAULT 0
+);
+CREATE INDEX IF NOT EXISTS vault_journal_settlement ON vault_journal (settlementId);
+CREATE TABLE IF NOT EXISTS vault_settlement
+(
+    settlementId  BIGINT
+        PRIMARY KEY,
+    amount        DOUBLE NOT NULL,
+    balanceBefore DOUBLE,
+    createdAt     BIGINT NOT NULL
+);
@@ -0,0 +1 @@
+INSERT INTO vault_journal (category, amount, createdAt) VALUES (?, ?, ?);
\ No newline at end of file
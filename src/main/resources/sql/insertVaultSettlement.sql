@@ -0,0 +1 @@
+INSERT INTO vault_settlement (settlementId, amount, createdAt) VALUES (?, ?, ?);
\ No newline at end of file
@@ -0,0 +1 @@
+UPDATE vault_journal SET settlementId=0 WHERE settlementId=?;
\ No newline at end of file
@@ -0,0 +1 @@
+UPDATE vault_settlement SET balanceBefore=? WHERE settlementId=?;
\ No newline at end of file